@@ -0,0 +1,73 @@
+package melrief.hadoopconfmanager;
+
+/**
+ * A change of the value of a configuration key, recorded by a
+ * {@link ConfigurationManager} when its change log is enabled, see
+ * {@link ConfigurationManager#enableChangeLog(int)}, or of a derived key.
+ * The values are the raw strings set in the
+ * {@link org.apache.hadoop.conf.Configuration}; the default values, the
+ * derived values, the values read from a snapshot and the values resolved
+ * before the log was enabled are written as they would be in a
+ * Configuration. The values are null for secret configurations, see
+ * {@link ConfigurationDescription#isSecret()}
+ */
+public final class ConfigurationChange {
+
+  private final long sequence;
+  private final long configureId;
+  private final long timestamp;
+  private final String key;
+  private final boolean secret;
+  private final String oldValue;
+  private final String newValue;
+
+  ConfigurationChange(long sequence, long configureId, long timestamp,
+      String key, boolean secret, String oldValue, String newValue) {
+    this.sequence = sequence;
+    this.configureId = configureId;
+    this.timestamp = timestamp;
+    this.key = key;
+    this.secret = secret;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+  }
+
+  /** Returns the position of the change in the log */
+  public long getSequence() {
+    return this.sequence;
+  }
+
+  /** Returns the number of the configure call, starting from 1 */
+  public long getConfigureId() {
+    return this.configureId;
+  }
+
+  /** Returns the time of the change in milliseconds since the epoch */
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public boolean isSecret() {
+    return this.secret;
+  }
+
+  /** Returns the previous value, null if the key was never resolved or secret */
+  public String getOldValue() {
+    return this.oldValue;
+  }
+
+  /** Returns the new value, null if secret */
+  public String getNewValue() {
+    return this.newValue;
+  }
+
+  @Override
+  public String toString() {
+    return "#" + this.configureId + " " + this.key + ": "
+        + (this.secret ? "<secret>" : this.oldValue + " -> " + this.newValue);
+  }
+}
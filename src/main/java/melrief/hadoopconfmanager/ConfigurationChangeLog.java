@@ -0,0 +1,74 @@
+package melrief.hadoopconfmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free ring buffer of the most recent {@link ConfigurationChange}s.
+ * Writers claim a sequence number with an atomic increment and store the
+ * change in its slot, overwriting the oldest one; readers keep only the
+ * slots whose change has the expected sequence number. The old value of a
+ * change is the new value of the previous change of its key, so that both
+ * are raw values once the key changed since the log was enabled
+ */
+final class ConfigurationChangeLog {
+
+  private final AtomicReferenceArray<ConfigurationChange> slots;
+
+  private final int mask;
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** The last value recorded for each key that is not secret */
+  private final ConcurrentHashMap<String, String> lastValues = new ConcurrentHashMap<String, String>();
+
+  /**
+   * @param capacity the number of changes kept, rounded up to a power of two
+   */
+  ConfigurationChangeLog(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<ConfigurationChange>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * @param oldValue the previous value, used if the key has no change
+   *          recorded yet
+   */
+  void record(long configureId, String key, boolean secret, String oldValue,
+      String newValue) {
+    if (!secret && newValue != null) {
+      String last = this.lastValues.put(key, newValue);
+      if (last != null) {
+        oldValue = last;
+      }
+    }
+    long position = this.sequence.getAndIncrement();
+    this.slots.set((int) (position & this.mask), new ConfigurationChange(
+        position, configureId, System.currentTimeMillis(), key, secret,
+        secret ? null : oldValue, secret ? null : newValue));
+  }
+
+  /** Returns the changes still in the buffer, from the oldest */
+  List<ConfigurationChange> getChanges() {
+    long end = this.sequence.get();
+    long start = Math.max(0, end - this.slots.length());
+    List<ConfigurationChange> changes = new ArrayList<ConfigurationChange>();
+    for (long position = start; position < end; ++position) {
+      ConfigurationChange change = this.slots.get((int) (position & this.mask));
+      if (change != null && change.getSequence() == position) {
+        changes.add(change);
+      }
+    }
+    return changes;
+  }
+}
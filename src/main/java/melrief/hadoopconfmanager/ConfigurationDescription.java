@@ -1,12 +1,20 @@
 package melrief.hadoopconfmanager;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configuration.IntegerRanges;
@@ -16,7 +24,10 @@ import org.apache.hadoop.conf.Configuration.IntegerRanges;
  * {@link org.apache.hadoop.conf.ConfigurationDescription#get(Configuration)} 
  * from a {@link org.apache.hadoop.conf.Configuration}.
  * A configuration is composed by a key, the configuration description, 
- * the value type and a default value
+ * the value type and a default value. The value can also be set using
+ * aliases of the key or deprecated keys, see
+ * {@link ConfigurationDescription#withAliases(String...)} and
+ * {@link ConfigurationDescription#withDeprecatedKeys(String...)}
  * 
  * @param <T> The type of the value
  */
@@ -26,8 +37,30 @@ public abstract class ConfigurationDescription<T> {
   private final String description;
   private final T defaultValue;
   private PrintStream warnStream;
+  private String[] aliases = new String[0];
+  private String[] deprecatedKeys = new String[0];
+  private boolean secret;
+
+  /** The name of the type, or null to use the class of the default value */
+  private final String type;
+
+  /** The warning printed when the key is not set, built once */
+  private volatile String missingWarning;
+
+  /** The deprecated keys already found, to warn only once per process */
+  private static final ConcurrentHashMap<String, Boolean> warnedDeprecatedKeys = new ConcurrentHashMap<String, Boolean>();
   
   public ConfigurationDescription(String key, String description, T defaultValue, PrintStream warnStream) {
+    this(key, description, defaultValue, warnStream, null);
+  }
+
+  /**
+   * @param type the name of the type returned by
+   *          {@link ConfigurationDescription#getType()}, for the types that
+   *          the class of their default value doesn't name
+   */
+  protected ConfigurationDescription(String key, String description,
+      T defaultValue, PrintStream warnStream, String type) {
     if (key == null || description == null) {
       throw new NullPointerException();
     }
@@ -35,13 +68,15 @@ public abstract class ConfigurationDescription<T> {
     this.description = description;
     this.defaultValue = defaultValue;
     this.warnStream = warnStream;
+    this.type = type;
   }
   
   public static <T1> ConfigurationDescription<T1> from(FieldType<T1> cls,
       String key, String description, T1 defaultValue, PrintStream stream)
       throws IllegalArgumentException, InstantiationException,
       IllegalAccessException, InvocationTargetException {
-    Constructor<?> constructor = FieldType.registeredClasses.get(cls);
+    cls.checkDefaultValue(defaultValue);
+    Constructor<?> constructor = cls.constructor();
     return (ConfigurationDescription<T1>) constructor.newInstance(key,
         description, defaultValue, stream);
   }
@@ -58,7 +93,8 @@ public abstract class ConfigurationDescription<T> {
   // }
 
   public final String getType() {
-    return defaultValue.getClass().getSimpleName();
+    return this.type != null ? this.type : defaultValue.getClass()
+        .getSimpleName();
   }
 
   public String getKey() {
@@ -73,23 +109,291 @@ public abstract class ConfigurationDescription<T> {
     return this.defaultValue;
   }
 
+  /**
+   * Returns the value as it can be written in a {@link Configuration}.
+   * Types whose values are not written using {@link Object#toString()}
+   * must override this method
+   */
+  public String format(T value) {
+    return String.valueOf(value);
+  }
+
+  /**
+   * Returns the default value as it can be written in a {@link Configuration},
+   * or a mask if the value is secret
+   */
+  public String getDefaultValueAsString() {
+    return this.secret ? Secret.MASK : this.format(this.defaultValue);
+  }
+
+  /**
+   * Set other names of the key. The value of an alias is used if the key is
+   * not set. This must be called before adding the configuration description
+   * to a {@link ConfigurationManager}
+   * 
+   * @return this configuration description
+   * @throws UnsupportedOperationException if the type can't be read using
+   *           another name, see
+   *           {@link ConfigurationDescription#get(Configuration, String)}
+   */
+  public ConfigurationDescription<T> withAliases(String... aliases) {
+    this.aliases = this.checkNames(aliases);
+    return this;
+  }
+
+  /**
+   * Set the old names of the key. The value of a deprecated key is used if
+   * neither the key nor its aliases are set, and a warning is printed the
+   * first time a deprecated key is found. This must be called before adding
+   * the configuration description to a {@link ConfigurationManager}
+   * 
+   * @return this configuration description
+   * @throws UnsupportedOperationException if the type can't be read using
+   *           another name, see
+   *           {@link ConfigurationDescription#get(Configuration, String)}
+   */
+  public ConfigurationDescription<T> withDeprecatedKeys(String... deprecatedKeys) {
+    this.deprecatedKeys = this.checkNames(deprecatedKeys);
+    return this;
+  }
+
+  private String[] checkNames(String[] names) {
+    for (String name : names) {
+      if (name == null) {
+        throw new NullPointerException();
+      }
+    }
+    if (names.length > 0 && !this.canReadOtherNames()) {
+      throw new UnsupportedOperationException("configuration key '"
+          + this.getKey() + "' of type " + this.getType()
+          + " can't be read using other names");
+    }
+    return names.clone();
+  }
+
+  /** Returns true if the class overrides get(Configuration, String) */
+  private boolean canReadOtherNames() {
+    for (Class<?> cls = this.getClass(); cls != ConfigurationDescription.class; cls = cls
+        .getSuperclass()) {
+      try {
+        cls.getDeclaredMethod("get", Configuration.class, String.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // look in the superclass
+      }
+    }
+    return false;
+  }
+
+  public String[] getAliases() {
+    return this.aliases.clone();
+  }
+
+  public String[] getDeprecatedKeys() {
+    return this.deprecatedKeys.clone();
+  }
+
+  /**
+   * Mark the value as secret: it is not recorded in the change log of
+   * a {@link ConfigurationManager} nor in the flight recorder events, and the
+   * default value is masked in the warnings and in the converters. This
+   * must be called before adding the configuration description to a
+   * {@link ConfigurationManager}
+   * 
+   * @return this configuration description
+   */
+  public ConfigurationDescription<T> asSecret() {
+    this.secret = true;
+    return this;
+  }
+
+  public boolean isSecret() {
+    return this.secret;
+  }
+
+  String[] aliases() {
+    return this.aliases;
+  }
+
+  String[] deprecatedKeys() {
+    return this.deprecatedKeys;
+  }
+
   public String toPrettyString() {
     return this.key + " (type: " + this.getType() + ", default: "
-        + this.getDefaultValue() + "): " + this.getDescription();
+        + this.getDefaultValueAsString() + "): " + this.getDescription();
   }
 
   abstract protected T get(Configuration conf);
 
+  /**
+   * Get the value set with the given name, that is the key, an alias or a
+   * deprecated key. Types that support aliases and deprecated keys must
+   * override this method, the others are rejected by
+   * {@link ConfigurationDescription#withAliases(String...)} and
+   * {@link ConfigurationDescription#withDeprecatedKeys(String...)}
+   * 
+   * @throws UnsupportedOperationException if the name is not the key and
+   *           this method is not overridden
+   */
+  protected T get(Configuration conf, String key) {
+    if (key.equals(this.getKey())) {
+      return this.get(conf);
+    }
+    throw new UnsupportedOperationException("configuration key '"
+        + this.getKey() + "' of type " + this.getType()
+        + " can't be read using the name '" + key + "'");
+  }
+
+  /**
+   * Write a value of this configuration in a binary snapshot, see
+   * {@link ConfigurationManager#writeSnapshot(OutputStream)}. Types that
+   * can be written must override this method and
+   * {@link ConfigurationDescription#readValue(ByteBuffer)}
+   * 
+   * @param out where to write the value
+   * @param value the value, never null
+   * @throws UnsupportedOperationException if the type can't be written
+   */
+  protected void writeValue(DataOutput out, T value) throws IOException {
+    throw new UnsupportedOperationException("configuration key '"
+        + this.getKey() + "' of type " + this.getType()
+        + " can't be written in a snapshot");
+  }
+
+  /**
+   * Read a value written by
+   * {@link ConfigurationDescription#writeValue(DataOutput, Object)}
+   * 
+   * @param in the snapshot, positioned at the beginning of the value
+   * @throws UnsupportedOperationException if the type can't be read
+   */
+  protected T readValue(ByteBuffer in) {
+    throw new UnsupportedOperationException("configuration key '"
+        + this.getKey() + "' of type " + this.getType()
+        + " can't be read from a snapshot");
+  }
+
   public T checkAndGet(Configuration conf) {
     
     if (null == conf.get(this.getKey())) {
-      if (this.warnStream != null) {
-        this.warnStream.println("WARN: configuration key '" + this.getKey()
-          + "' not found, set it to default " + this.getDefaultValue());
+      String name = this.findSetName(conf, true);
+      if (name != null) {
+        return this.parse(conf, name);
+      }
+      return this.missing();
+    }
+    return this.parse(conf, this.getKey());
+  }
+
+  /** Warn that the key is not set and return the default value */
+  T missing() {
+    if (this.warnStream != null) {
+      String warning = this.missingWarning;
+      if (warning == null) {
+        warning = "WARN: configuration key '" + this.getKey()
+            + "' not found, set it to default " + this.getDefaultValueAsString();
+        this.missingWarning = warning;
+      }
+      this.warnStream.println(warning);
+    }
+    if (ConfigurationEvents.isRecording()) {
+      ConfigurationEvents.MissingKey event = new ConfigurationEvents.MissingKey();
+      if (event.shouldCommit()) {
+        event.key = this.getKey();
+        event.defaultValue = this.secret ? null : this.getDefaultValueAsString();
+        event.commit();
+      }
+    }
+    return this.getDefaultValue();
+  }
+
+  /** Warn the first time that the deprecated key is found in this process */
+  void warnDeprecated(String deprecatedKey) {
+    if (this.warnStream != null
+        && warnedDeprecatedKeys.putIfAbsent(deprecatedKey, Boolean.TRUE) == null) {
+      this.warnStream.println("WARN: configuration key '" + deprecatedKey
+          + "' is deprecated, use '" + this.getKey() + "' instead");
+    }
+  }
+
+  /** Get the value set with the name, recording a parse failure event */
+  private T parse(Configuration conf, String name) {
+    try {
+      return name.equals(this.getKey()) ? this.get(conf) : this.get(conf, name);
+    } catch (RuntimeException e) {
+      if (ConfigurationEvents.isRecording()) {
+        ConfigurationEvents.ParseFailure event = new ConfigurationEvents.ParseFailure();
+        if (event.shouldCommit()) {
+          event.key = name;
+          event.value = this.secret ? null : conf.get(name);
+          event.message = e.getMessage();
+          event.commit();
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the first alias or deprecated key set in conf, or null. The name
+   * table of the manager maps each name to its description, but which names
+   * are set is known only by probing conf, and in order since the first one
+   * set wins: this runs only when the key is not set, and stops at the first
+   * name found, so a renamed key costs one probe per name before it
+   */
+  private String findSetName(Configuration conf, boolean warn) {
+    for (String alias : this.aliases) {
+      if (null != conf.get(alias)) {
+        return alias;
+      }
+    }
+    for (String deprecatedKey : this.deprecatedKeys) {
+      if (null != conf.get(deprecatedKey)) {
+        if (warn) {
+          this.warnDeprecated(deprecatedKey);
+        }
+        return deprecatedKey;
       }
-      return this.getDefaultValue();
     }
-    return this.get(conf);
+    return null;
+  }
+
+  /**
+   * Returns the raw value of the first of the key, the aliases and the
+   * deprecated keys set in conf, or null if none is set
+   */
+  String rawValue(Configuration conf) {
+    String value = conf.get(this.getKey());
+    if (value != null) {
+      return value;
+    }
+    String name = this.findSetName(conf, false);
+    return name == null ? null : conf.get(name);
+  }
+
+  /**
+   * Returns the value of the configuration in conf as
+   * {@link ConfigurationDescription#checkAndGet(Configuration)} does, but
+   * without side effects: no warning is printed, no event is recorded and
+   * the value is not cached. This is meant for tools inspecting a
+   * configuration, like the converters
+   * 
+   * @throws RuntimeException if the value can't be parsed
+   */
+  public T resolve(Configuration conf) {
+    String name = null != conf.get(this.getKey()) ? this.getKey() : this
+        .findSetName(conf, false);
+    return name == null ? this.getDefaultValue() : this.read(conf, name);
+  }
+
+  /**
+   * Read the value set with the given name, that is set in conf, without
+   * caching it. Types that cache their values must override this method,
+   * that by default is {@link ConfigurationDescription#get(Configuration, String)}
+   */
+  protected T read(Configuration conf, String name) {
+    return this.get(conf, name);
   }
 
   @Override
@@ -118,7 +422,69 @@ public abstract class ConfigurationDescription<T> {
     return true;
   }
 
-  static class BooleanConfiguration extends ConfigurationDescription<Boolean> {
+  /** A raw value and the value parsed from it */
+  static final class Parsed<T> {
+    final String raw;
+    final T value;
+
+    Parsed(String raw, T value) {
+      this.raw = raw;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A configuration whose value is parsed from the raw value of the key. The
+   * last value parsed is returned again while the raw value is the same, so
+   * that reading an unchanged configuration neither parses nor boxes the
+   * value
+   */
+  abstract static class ParsedConfiguration<T> extends ConfigurationDescription<T> {
+
+    /** The last value parsed, returned again while the raw value is the same */
+    private volatile Parsed<T> last;
+
+    public ParsedConfiguration(String key, String description, T defaultValue,
+        PrintStream stream) {
+      super(key, description, defaultValue, stream);
+    }
+
+    protected ParsedConfiguration(String key, String description,
+        T defaultValue, PrintStream stream, String type) {
+      super(key, description, defaultValue, stream, type);
+    }
+
+    @Override
+    protected T get(Configuration conf) {
+      return this.get(conf, this.getKey());
+    }
+
+    @Override
+    protected T get(Configuration conf, String key) {
+      String raw = conf.get(key);
+      if (raw == null) {
+        return this.getDefaultValue();
+      }
+      Parsed<T> last = this.last;
+      if (last != null && last.raw.equals(raw)) {
+        return last.value;
+      }
+      T value = this.parseValue(conf, key, raw);
+      this.last = new Parsed<T>(raw, value);
+      return value;
+    }
+
+    @Override
+    protected T read(Configuration conf, String name) {
+      return this.parseValue(conf, name, conf.get(name));
+    }
+
+    /** Parse the raw value of the key, that is not null */
+    protected abstract T parseValue(Configuration conf, String key, String raw);
+
+  }
+
+  static class BooleanConfiguration extends ParsedConfiguration<Boolean> {
 
     public BooleanConfiguration(String key, String description,
         Boolean defaultValue, PrintStream stream) {
@@ -126,13 +492,23 @@ public abstract class ConfigurationDescription<T> {
     }
 
     @Override
-    protected Boolean get(Configuration conf) {
-      return conf.getBoolean(this.getKey(), this.getDefaultValue());
+    protected Boolean parseValue(Configuration conf, String key, String raw) {
+      return conf.getBoolean(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Boolean value) throws IOException {
+      out.writeBoolean(value);
+    }
+
+    @Override
+    protected Boolean readValue(ByteBuffer in) {
+      return in.get() != 0;
     }
 
   }
 
-  static class ClassConfiguration extends ConfigurationDescription<Class> {
+  static class ClassConfiguration extends ParsedConfiguration<Class> {
 
     public ClassConfiguration(String key, String description,
         Class<?> defaultValue, PrintStream stream) {
@@ -140,13 +516,29 @@ public abstract class ConfigurationDescription<T> {
     }
 
     @Override
-    protected Class<?> get(Configuration conf) {
-      return conf.getClass(this.getKey(), this.getDefaultValue());
+    protected Class<?> parseValue(Configuration conf, String key, String raw) {
+      return conf.getClass(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Class value) throws IOException {
+      ConfigurationSnapshot.writeString(out, value.getName());
+    }
+
+    @Override
+    protected Class<?> readValue(ByteBuffer in) {
+      String name = ConfigurationSnapshot.readString(in);
+      try {
+        return Class.forName(name, true, Thread.currentThread()
+            .getContextClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
     }
 
   }
 
-  static class DoubleConfiguration extends ConfigurationDescription<Double> {
+  static class DoubleConfiguration extends ParsedConfiguration<Double> {
 
     public DoubleConfiguration(String key, String description,
         Double defaultValue, PrintStream stream) {
@@ -154,61 +546,276 @@ public abstract class ConfigurationDescription<T> {
     }
 
     @Override
-    protected Double get(Configuration conf) {
-      return Double.valueOf(conf.get(this.getKey()));
+    protected Double parseValue(Configuration conf, String key, String raw) {
+      return Double.valueOf(raw);
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Double value) throws IOException {
+      out.writeDouble(value);
+    }
+
+    @Override
+    protected Double readValue(ByteBuffer in) {
+      return in.getDouble();
     }
     
   }
   
-  static class IntConfiguration extends ConfigurationDescription<Integer> {
+  static class IntConfiguration extends ParsedConfiguration<Integer> {
 
     public IntConfiguration(String key, String description, Integer defaultValue, PrintStream stream) {
       super(key, description, defaultValue, stream);
     }
 
     @Override
-    protected Integer get(Configuration conf) {
-      return conf.getInt(this.getKey(), this.getDefaultValue());
+    protected Integer parseValue(Configuration conf, String key, String raw) {
+      return conf.getInt(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Integer value) throws IOException {
+      out.writeInt(value);
+    }
+
+    @Override
+    protected Integer readValue(ByteBuffer in) {
+      return in.getInt();
     }
 
   }
 
+  /**
+   * An enum constant, parsed ignoring case with the table of
+   * {@link EnumNames}. The default value can't be null because it gives the
+   * enum class
+   */
   static class EnumConfiguration<T extends Enum<T>> extends
       ConfigurationDescription<T> {
 
+    private final EnumNames<T> names;
+
     public EnumConfiguration(String key, String description, T defaultValue, PrintStream stream) {
-      super(key, description, defaultValue, stream);
+      super(key, description, defaultValue, stream, defaultValue
+          .getDeclaringClass().getSimpleName());
+      this.names = EnumNames.of(defaultValue.getDeclaringClass());
+    }
+
+    @Override
+    public String format(T value) {
+      return value == null ? "null" : value.name();
     }
 
     @Override
     protected T get(Configuration conf) {
-      return conf.getEnum(this.getKey(), this.getDefaultValue());
+      return this.get(conf, this.getKey());
+    }
+
+    @Override
+    protected T get(Configuration conf, String key) {
+      String raw = conf.get(key);
+      return raw == null ? this.getDefaultValue() : this.names.valueOf(raw);
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, T value) throws IOException {
+      ConfigurationSnapshot.writeString(out, value.name());
     }
 
+    @Override
+    protected T readValue(ByteBuffer in) {
+      return this.names.valueOf(ConfigurationSnapshot.readString(in));
+    }
+
+  }
+
+  /** A set of enum constants with its bit mask, see {@link EnumNames} */
+  static final class Masked<E extends Enum<E>> {
+    final long mask;
+    final Set<E> value;
+
+    Masked(long mask, Set<E> value) {
+      this.mask = mask;
+      this.value = value;
+    }
   }
 
-  static class FloatConfiguration extends ConfigurationDescription<Float> {
+  /**
+   * A comma separated set of enum constants, parsed ignoring case. For enums
+   * with at most 64 constants the value is parsed into a bit mask without
+   * allocating, and the set of the last mask is returned while the mask is
+   * the same. The values are unmodifiable, so that they can be shared by all
+   * the callers. The default value can't be null and, if it is empty, must
+   * be an {@link EnumSet}, because it gives the enum class
+   */
+  static class EnumSetConfiguration<E extends Enum<E>> extends
+      ConfigurationDescription<Set<E>> {
+
+    private final EnumNames<E> names;
+
+    /** The last set parsed into a bit mask */
+    private volatile Masked<E> last;
+
+    public EnumSetConfiguration(String key, String description,
+        Set<E> defaultValue, PrintStream stream) {
+      super(key, description, unmodifiableCopy(defaultValue), stream,
+          "EnumSet<" + EnumNames.elementType(defaultValue).getSimpleName()
+              + ">");
+      this.names = EnumNames.of(EnumNames.elementType(defaultValue));
+    }
+
+    private static <E extends Enum<E>> Set<E> unmodifiableCopy(Set<E> set) {
+      EnumSet<E> copy = EnumSet.noneOf(EnumNames.elementType(set));
+      copy.addAll(set);
+      return Collections.unmodifiableSet(copy);
+    }
+
+    @Override
+    public String format(Set<E> value) {
+      if (value == null) {
+        return "null";
+      }
+      StringBuilder builder = new StringBuilder();
+      for (E constant : value) {
+        if (builder.length() > 0) {
+          builder.append(',');
+        }
+        builder.append(constant.name());
+      }
+      return builder.toString();
+    }
+
+    @Override
+    protected Set<E> get(Configuration conf) {
+      return this.get(conf, this.getKey());
+    }
+
+    @Override
+    protected Set<E> get(Configuration conf, String key) {
+      String raw = conf.get(key);
+      if (raw == null) {
+        return this.getDefaultValue();
+      }
+      return this.parse(raw);
+    }
+
+    @Override
+    protected Set<E> read(Configuration conf, String name) {
+      return Collections.unmodifiableSet(this.names.parseSet(conf.get(name)));
+    }
+
+    private Set<E> parse(String raw) {
+      if (!this.names.hasMask()) {
+        return Collections.unmodifiableSet(this.names.parseSet(raw));
+      }
+      long mask = this.names.parseMask(raw);
+      Masked<E> last = this.last;
+      if (last == null || last.mask != mask) {
+        last = new Masked<E>(mask, Collections.unmodifiableSet(this.names
+            .toSet(mask)));
+        this.last = last;
+      }
+      return last.value;
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Set<E> value)
+        throws IOException {
+      ConfigurationSnapshot.writeString(out, this.format(value));
+    }
+
+    @Override
+    protected Set<E> readValue(ByteBuffer in) {
+      return this.parse(ConfigurationSnapshot.readString(in));
+    }
+
+  }
+
+  static class FloatConfiguration extends ParsedConfiguration<Float> {
 
     public FloatConfiguration(String key, String description, Float defaultValue, PrintStream stream) {
       super(key, description, defaultValue, stream);
     }
 
     @Override
-    protected Float get(Configuration conf) {
-      return conf.getFloat(this.getKey(), this.getDefaultValue());
+    protected Float parseValue(Configuration conf, String key, String raw) {
+      return conf.getFloat(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Float value) throws IOException {
+      out.writeFloat(value);
+    }
+
+    @Override
+    protected Float readValue(ByteBuffer in) {
+      return in.getFloat();
     }
 
   }
 
-  static class LongConfiguration extends ConfigurationDescription<Long> {
+  static class LongConfiguration extends ParsedConfiguration<Long> {
 
     public LongConfiguration(String key, String description, Long defaultValue, PrintStream stream) {
       super(key, description, defaultValue, stream);
     }
 
+    protected LongConfiguration(String key, String description,
+        Long defaultValue, PrintStream stream, String type) {
+      super(key, description, defaultValue, stream, type);
+    }
+
     @Override
-    protected Long get(Configuration conf) {
-      return conf.getLong(this.getKey(), this.getDefaultValue());
+    protected Long parseValue(Configuration conf, String key, String raw) {
+      return conf.getLong(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, Long value) throws IOException {
+      out.writeLong(value);
+    }
+
+    @Override
+    protected Long readValue(ByteBuffer in) {
+      return in.getLong();
+    }
+
+  }
+
+  static class DataSizeConfiguration extends LongConfiguration {
+
+    public DataSizeConfiguration(String key, String description,
+        Long defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream, "DataSize");
+    }
+
+    @Override
+    protected Long parseValue(Configuration conf, String key, String raw) {
+      return Units.parseBytes(raw);
+    }
+
+    @Override
+    public String format(Long value) {
+      return value == null ? "null" : Units.formatBytes(value);
+    }
+
+  }
+
+  static class DurationConfiguration extends LongConfiguration {
+
+    public DurationConfiguration(String key, String description,
+        Long defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream, "Duration");
+    }
+
+    @Override
+    protected Long parseValue(Configuration conf, String key, String raw) {
+      return Units.parseNanos(raw);
+    }
+
+    @Override
+    public String format(Long value) {
+      return value == null ? "null" : Units.formatNanos(value);
     }
 
   }
@@ -222,11 +829,33 @@ public abstract class ConfigurationDescription<T> {
 
     @Override
     protected String get(Configuration conf) {
-      return conf.get(this.getKey(), this.getDefaultValue());
+      return this.get(conf, this.getKey());
+    }
+
+    @Override
+    protected String get(Configuration conf, String key) {
+      return conf.get(key, this.getDefaultValue());
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, String value) throws IOException {
+      ConfigurationSnapshot.writeString(out, value);
+    }
+
+    @Override
+    protected String readValue(ByteBuffer in) {
+      return ConfigurationSnapshot.readString(in);
     }
 
   }
 
+  /**
+   * A comma separated collection of strings. Each value read is a new
+   * mutable collection that the caller can keep and modify, as returned by
+   * {@link Configuration#getStringCollection(String)}, so unlike the parsed
+   * types configuring an unchanged value allocates; see
+   * {@link FieldType#StringList} for a shared immutable list
+   */
   static class StringCollectionConfiguration extends
       ConfigurationDescription<Collection<String>> {
 
@@ -237,24 +866,249 @@ public abstract class ConfigurationDescription<T> {
 
     @Override
     protected Collection<String> get(Configuration conf) {
-      Collection<String> value = conf.getStringCollection(this.getKey());
+      return this.get(conf, this.getKey());
+    }
+
+    @Override
+    protected Collection<String> get(Configuration conf, String key) {
+      Collection<String> value = conf.getStringCollection(key);
       return value.isEmpty() ? this.getDefaultValue() : value;
     }
 
+    @Override
+    protected void writeValue(DataOutput out, Collection<String> value)
+        throws IOException {
+      out.writeInt(value.size());
+      for (String s : value) {
+        ConfigurationSnapshot.writeString(out, s);
+      }
+    }
+
+    @Override
+    protected Collection<String> readValue(ByteBuffer in) {
+      int size = ConfigurationSnapshot.readStringCount(in);
+      ArrayList<String> value = new ArrayList<String>(size);
+      for (int i = 0; i < size; ++i) {
+        value.add(ConfigurationSnapshot.readString(in));
+      }
+      return value;
+    }
+
+  }
+
+  static class StringListConfiguration extends
+      ParsedConfiguration<ImmutableStringList> {
+
+    public StringListConfiguration(String key, String description,
+        ImmutableStringList defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream);
+    }
+
+    @Override
+    protected ImmutableStringList parseValue(Configuration conf, String key,
+        String raw) {
+      // like StringCollection, a value without elements is the default
+      ImmutableStringList value = ImmutableStringList.parse(raw);
+      return value.isEmpty() ? this.getDefaultValue() : value;
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, ImmutableStringList value)
+        throws IOException {
+      out.writeInt(value.size());
+      for (String s : value) {
+        ConfigurationSnapshot.writeString(out, s);
+      }
+    }
+
+    @Override
+    protected ImmutableStringList readValue(ByteBuffer in) {
+      String[] elements = new String[ConfigurationSnapshot.readStringCount(in)];
+      for (int i = 0; i < elements.length; ++i) {
+        elements[i] = ConfigurationSnapshot.readString(in);
+      }
+      return ImmutableStringList.of(elements);
+    }
+
+  }
+
+  static class StringSetConfiguration extends
+      ParsedConfiguration<ImmutableStringSet> {
+
+    public StringSetConfiguration(String key, String description,
+        ImmutableStringSet defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream);
+    }
+
+    @Override
+    protected ImmutableStringSet parseValue(Configuration conf, String key,
+        String raw) {
+      // like StringCollection, a value without elements is the default
+      ImmutableStringSet value = ImmutableStringSet.parse(raw);
+      return value.isEmpty() ? this.getDefaultValue() : value;
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, ImmutableStringSet value)
+        throws IOException {
+      out.writeInt(value.size());
+      for (String s : value) {
+        ConfigurationSnapshot.writeString(out, s);
+      }
+    }
+
+    @Override
+    protected ImmutableStringSet readValue(ByteBuffer in) {
+      String[] elements = new String[ConfigurationSnapshot.readStringCount(in)];
+      for (int i = 0; i < elements.length; ++i) {
+        elements[i] = ConfigurationSnapshot.readString(in);
+      }
+      return ImmutableStringSet.of(elements);
+    }
+
+  }
+
+  static class IntegerRangeSetConfiguration extends
+      ParsedConfiguration<IntegerRangeSet> {
+
+    public IntegerRangeSetConfiguration(String key, String description,
+        IntegerRangeSet defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream);
+    }
+
+    @Override
+    protected IntegerRangeSet parseValue(Configuration conf, String key,
+        String raw) {
+      return IntegerRangeSet.parse(raw);
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, IntegerRangeSet value)
+        throws IOException {
+      ConfigurationSnapshot.writeString(out, value.toString());
+    }
+
+    @Override
+    protected IntegerRangeSet readValue(ByteBuffer in) {
+      return IntegerRangeSet.parse(ConfigurationSnapshot.readString(in));
+    }
+
   }
 
   static class IntegerRangesConfiguration extends
-      ConfigurationDescription<IntegerRanges> {
+      ParsedConfiguration<IntegerRanges> {
+
+    /** The default value as a string, computed once */
+    private final String defaultString;
 
     public IntegerRangesConfiguration(String key, String description,
         IntegerRanges defaultValue, PrintStream stream) {
       super(key, description, defaultValue, stream);
+      this.defaultString = defaultValue == null ? null : defaultValue.toString();
+    }
+
+    @Override
+    protected IntegerRanges parseValue(Configuration conf, String key, String raw) {
+      return conf.getRange(key, this.defaultString);
+    }
+
+    @Override
+    protected void writeValue(DataOutput out, IntegerRanges value)
+        throws IOException {
+      ConfigurationSnapshot.writeString(out, value.toString());
+    }
+
+    @Override
+    protected IntegerRanges readValue(ByteBuffer in) {
+      return new IntegerRanges(ConfigurationSnapshot.readString(in));
+    }
+
+  }
+
+  /**
+   * A password or a token read with {@link Configuration#getPassword(String)}
+   * through the cache of {@link Secret}. The description is always secret and
+   * its values can't be written in a snapshot
+   */
+  static class SecretConfiguration extends ConfigurationDescription<Secret> {
+
+    /** The cache entry of the last name read, used while it is fresh */
+    private volatile SecretCache.Entry last;
+
+    public SecretConfiguration(String key, String description,
+        Secret defaultValue, PrintStream stream) {
+      super(key, description, defaultValue, stream);
+      this.asSecret();
     }
 
     @Override
-    protected IntegerRanges get(Configuration conf) {
-      return conf.getRange(this.getKey(), this.getDefaultValue().toString());
+    public String format(Secret value) {
+      return Secret.MASK;
+    }
+
+    /**
+     * The secret can be stored in a credential provider instead of the
+     * configuration, so each name is looked up with
+     * {@link Configuration#getPassword(String)}
+     */
+    @Override
+    public Secret checkAndGet(Configuration conf) {
+      Secret value = this.get(conf);
+      for (int i = 0; value == null && i < this.aliases().length; ++i) {
+        value = this.get(conf, this.aliases()[i]);
+      }
+      for (int i = 0; value == null && i < this.deprecatedKeys().length; ++i) {
+        value = this.get(conf, this.deprecatedKeys()[i]);
+        if (value != null) {
+          this.warnDeprecated(this.deprecatedKeys()[i]);
+        }
+      }
+      return value == null ? this.missing() : value;
+    }
+
+    @Override
+    protected Secret get(Configuration conf) {
+      return this.get(conf, this.getKey());
+    }
+
+    /** Like checkAndGet, the names can be set only in the providers */
+    @Override
+    public Secret resolve(Configuration conf) {
+      Secret value = this.read(conf, this.getKey());
+      for (int i = 0; value == null && i < this.aliases().length; ++i) {
+        value = this.read(conf, this.aliases()[i]);
+      }
+      for (int i = 0; value == null && i < this.deprecatedKeys().length; ++i) {
+        value = this.read(conf, this.deprecatedKeys()[i]);
+      }
+      return value == null ? this.getDefaultValue() : value;
+    }
+
+    /**
+     * Read the secret from the credential providers bypassing the cache, or
+     * null if it is not set
+     */
+    @Override
+    protected Secret read(Configuration conf, String name) {
+      try {
+        char[] chars = conf.getPassword(name);
+        return chars == null ? null : Secret.wrap(chars);
+      } catch (IOException e) {
+        throw new UncheckedIOException("cannot read the secret '" + name
+            + "'", e);
+      }
+    }
+
+    /** Returns the secret set with the name, or null if it is not set */
+    @Override
+    protected Secret get(Configuration conf, String key) {
+      SecretCache.Entry last = this.last;
+      if (last == null || !SecretCache.INSTANCE.isFresh(last, conf, key)) {
+        last = SecretCache.INSTANCE.lookup(conf, key);
+        this.last = last;
+      }
+      return last.await();
     }
 
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package melrief.hadoopconfmanager;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * The Java Flight Recorder events emitted while configuring. They are
+ * disabled unless a recording enables them. The events are created only
+ * while a recording is running, see {@link ConfigurationEvents#isRecording()},
+ * so that configuring without recordings doesn't allocate even before the
+ * JIT removes the events. On a runtime without the jdk.jfr module nothing is
+ * ever recording, so the events are never created nor loaded
+ */
+final class ConfigurationEvents {
+
+  static final String CATEGORY = "Hadoop Configuration Manager";
+
+  /** The recordings running, updated by the Flight Recorder */
+  private static final Set<Object> running = Collections
+      .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+  static {
+    boolean available;
+    try {
+      Class.forName("jdk.jfr.FlightRecorder", false,
+          ConfigurationEvents.class.getClassLoader());
+      available = true;
+    } catch (ClassNotFoundException e) {
+      // the Flight Recorder is not available
+      available = false;
+    }
+    if (available) {
+      RunningRecordings.track();
+    }
+  }
+
+  private ConfigurationEvents() {
+  }
+
+  /**
+   * Returns true while a recording is running, false otherwise. Once every
+   * recording is stopped the events aren't created anymore
+   */
+  static boolean isRecording() {
+    return !running.isEmpty();
+  }
+
+  /**
+   * Tracks the running recordings. The Flight Recorder classes are linked
+   * only by this class, loaded once they are known to be available
+   */
+  private static final class RunningRecordings implements
+      FlightRecorderListener {
+
+    static void track() {
+      FlightRecorder.addListener(new RunningRecordings());
+    }
+
+    @Override
+    public void recorderInitialized(FlightRecorder recorder) {
+      for (Recording recording : recorder.getRecordings()) {
+        this.recordingStateChanged(recording);
+      }
+    }
+
+    @Override
+    public void recordingStateChanged(Recording recording) {
+      if (recording.getState() == RecordingState.RUNNING) {
+        running.add(recording);
+      } else {
+        running.remove(recording);
+      }
+    }
+  }
+
+  @Name("melrief.hadoopconfmanager.Configure")
+  @Label("Configure")
+  @Category(CATEGORY)
+  @Description("A call to ConfigurationManager.configure")
+  static final class Configure extends Event {
+    @Label("Target")
+    Class<?> target;
+
+    @Label("Keys")
+    int keys;
+
+    @Label("Changed Keys")
+    int changedKeys;
+  }
+
+  @Name("melrief.hadoopconfmanager.KeyResolution")
+  @Label("Key Resolution")
+  @Category(CATEGORY)
+  @Description("The resolution of a configuration key and the call to its configurator")
+  static final class KeyResolution extends Event {
+    @Label("Key")
+    String key;
+
+    @Label("Target")
+    Class<?> target;
+  }
+
+  @Name("melrief.hadoopconfmanager.MissingKey")
+  @Label("Missing Key")
+  @Category(CATEGORY)
+  @Description("A configuration key not set and replaced by its default value")
+  static final class MissingKey extends Event {
+    @Label("Key")
+    String key;
+
+    @Label("Default Value")
+    String defaultValue;
+  }
+
+  @Name("melrief.hadoopconfmanager.ParseFailure")
+  @Label("Parse Failure")
+  @Category(CATEGORY)
+  @Description("A configuration value that can't be parsed")
+  static final class ParseFailure extends Event {
+    @Label("Key")
+    String key;
+
+    @Label("Value")
+    String value;
+
+    @Label("Message")
+    String message;
+  }
+}
@@ -0,0 +1,17 @@
+package melrief.hadoopconfmanager;
+
+import java.util.List;
+
+/** Thrown when one or more configurators fail. The first failure is the
+ * cause, the others are suppressed exceptions */
+public class ConfigurationFailedException 
+  extends RuntimeException {
+
+  public ConfigurationFailedException(List<Throwable> failures) {
+    super(failures.size() + " configurator(s) failed", failures.get(0));
+    for (Throwable failure : failures.subList(1, failures.size())) {
+      this.addSuppressed(failure);
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package melrief.hadoopconfmanager;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A named source of raw configuration values, e.g. a site XML file, the
+ * environment variables, the system properties or the command line
+ * arguments. Layers are combined by a {@link LayeredConfiguration}
+ */
+public abstract class ConfigurationLayer {
+
+  private final String name;
+
+  public ConfigurationLayer(String name) {
+    if (name == null) {
+      throw new NullPointerException();
+    }
+    this.name = name;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns the raw value of the configuration key in this layer
+   * 
+   * @return the value or null if the key is not set in this layer
+   */
+  public abstract String get(String key);
+
+  /** Returns a layer reading the values from a {@link Configuration} */
+  public static ConfigurationLayer fromConfiguration(String name,
+      final Configuration conf) {
+    return new ConfigurationLayer(name) {
+      public String get(String key) {
+        return conf.get(key);
+      }
+    };
+  }
+
+  /** Returns a layer reading the values from a map */
+  public static ConfigurationLayer fromMap(String name,
+      final Map<String, String> values) {
+    return new ConfigurationLayer(name) {
+      public String get(String key) {
+        return values.get(key);
+      }
+    };
+  }
+
+  /** Returns a layer reading the values from the system properties */
+  public static ConfigurationLayer fromSystemProperties() {
+    return new ConfigurationLayer("system properties") {
+      public String get(String key) {
+        return System.getProperty(key);
+      }
+    };
+  }
+
+  /**
+   * Returns a layer reading the values from the environment variables. The
+   * variable of a key is the prefix followed by the key in upper case with
+   * dots and dashes replaced by underscores, e.g. with the prefix
+   * <code>APP_</code> the key <code>server.max-connections</code> is read
+   * from <code>APP_SERVER_MAX_CONNECTIONS</code>
+   */
+  public static ConfigurationLayer fromEnvironment(final String prefix) {
+    final Map<String, String> environment = System.getenv();
+    return new ConfigurationLayer("environment") {
+      public String get(String key) {
+        return environment.get(prefix
+            + key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+      }
+    };
+  }
+
+  /**
+   * Returns a layer reading the values from command line arguments of the
+   * form <code>-Dkey=value</code> or <code>key=value</code>. Other
+   * arguments are ignored
+   */
+  public static ConfigurationLayer fromArguments(String[] args) {
+    HashMap<String, String> values = new HashMap<String, String>();
+    for (String arg : args) {
+      String property = arg.startsWith("-D") ? arg.substring(2) : arg;
+      int separator = property.indexOf('=');
+      if (separator > 0) {
+        values.put(property.substring(0, separator),
+            property.substring(separator + 1));
+      }
+    }
+    return fromMap("command line", values);
+  }
+
+  @Override
+  public String toString() {
+    return this.name;
+  }
+}
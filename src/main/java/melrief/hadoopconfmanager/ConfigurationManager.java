@@ -1,8 +1,29 @@
 package melrief.hadoopconfmanager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import melrief.hadoopconfmanager.converter.ConfigurationDescriptionConverter;
 
@@ -20,8 +41,24 @@ import org.apache.hadoop.conf.Configuration;
  * or
  * {@link ConfigurationManager#addConfiguratorAndConfiguration(Configurator, ConfigurationDescription)}
  * </li>
+ * <li>declare values derived from other keys using
+ * {@link ConfigurationManager#addConfiguratorAndDerivedConfiguration(Configurator, DerivedConfigurationDescription)}
+ * </li>
  * <li>configure the target by passing a {@link Configuration} to
  * {@link ConfigurationManager#configure(Configuration)}</li>
+ * <li>configure the target concurrently with
+ * {@link ConfigurationManager#configureAsync(Configuration)}, declaring the
+ * order between configurators with
+ * {@link ConfigurationManager#addOrdering(String, String)}</li>
+ * <li>save the resolved values in a binary snapshot with
+ * {@link ConfigurationManager#writeSnapshot(OutputStream)} and configure
+ * other instances from it with
+ * {@link ConfigurationManager#configureFromSnapshot(ByteBuffer)}</li>
+ * <li>record the recent changes of the values with
+ * {@link ConfigurationManager#enableChangeLog(int)}; the configure calls are
+ * also recorded as Java Flight Recorder events</li>
+ * <li>configure with a routine generated at runtime for the registered
+ * configurations, see {@link ConfigurationManager#enableGeneratedConfigure()}</li>
  * <li>Use a {@link ConfigurationDescriptionConverter} to convert the
  * configuration descriptions to another format (plain text, XML)...</li>
  * </ul>
@@ -43,6 +80,12 @@ import org.apache.hadoop.conf.Configuration;
  * }
  * </pre>
  * 
+ * A ConfigurationManager is thread-safe: the registered configurations are
+ * kept in an immutable schema that is replaced on each registration, so that
+ * {@link ConfigurationManager#configure(Configuration)} reads it without
+ * locks while other threads register new configurations. A configure sees
+ * the configurations registered before it starts.
+ * 
  * @param <O>
  *          the class to configure
  */
@@ -54,13 +97,29 @@ public class ConfigurationManager<O> {
   /** Where to print the warning if a configuration key is not set */
   private PrintStream stream;
 
-  /** A list of configuration descriptions with their configurators */
-  private HashSet<ConfiguratorConfiguration<?, O>> configuratorConfigurations = new HashSet<ConfiguratorConfiguration<?, O>>();
+  /** The registered configurations, replaced on each registration */
+  private volatile ConfigurationSchema<O> schema = ConfigurationSchema.empty();
+
+  /**
+   * The last value resolved for each key, used to detect changes. Replaced
+   * with a compare-and-set so that concurrent configures don't lose changes
+   */
+  private final AtomicReference<Map<String, Object>> resolvedValues = new AtomicReference<Map<String, Object>>(
+      Collections.<String, Object> emptyMap());
+
+  /** The number of values published, used to identify changes */
+  private final AtomicLong configureCount = new AtomicLong();
+
+  /** The recent changes of the values, null if disabled */
+  private volatile ConfigurationChangeLog changeLog;
+
+  /** True if configure uses the routine generated for the schema */
+  private volatile boolean generatedConfigure;
 
   /** Returns all the configuration descriptions */
   public HashSet<ConfigurationDescription<?>> getConfigurationDescriptions() {
     HashSet<ConfigurationDescription<?>> result = new HashSet<ConfigurationDescription<?>>();
-    for (ConfiguratorConfiguration<?,O> cc : this.configuratorConfigurations) {
+    for (ConfiguratorConfiguration<?,O> cc : this.schema.configurations) {
       result.add(cc.configuration);
     }
     return result;
@@ -96,16 +155,509 @@ public class ConfigurationManager<O> {
   }
 
   /**
-   * Apply each configuration separately to the object
+   * Returns the configuration description with the given key, alias or
+   * deprecated key
+   * 
+   * @return the configuration description or null if the name is unknown
+   */
+  public ConfigurationDescription<?> getConfigurationDescription(String name) {
+    return this.schema.nameTable.get(name);
+  }
+
+  /** Returns the keys, aliases and deprecated keys of all the configurations */
+  public Set<String> getConfigurationNames() {
+    return this.schema.nameTable.keySet();
+  }
+
+  /** Returns all the derived configuration descriptions */
+  public HashSet<DerivedConfigurationDescription<?>> getDerivedConfigurationDescriptions() {
+    HashSet<DerivedConfigurationDescription<?>> result = new HashSet<DerivedConfigurationDescription<?>>();
+    for (DerivedConfiguratorConfiguration<?, O> dc : this.schema.derivedOrder) {
+      result.add(dc.configuration);
+    }
+    return result;
+  }
+
+  /**
+   * Apply each configuration separately to the object, then recompute the
+   * derived values whose inputs changed since the last call. If no value
+   * changed the resolved values are not published again, so that configuring
+   * an unchanged configuration doesn't allocate
    * 
    * @param the configuration to apply
+   * @throws IllegalStateException if a derived value depends on a name that
+   *           is not registered, before anything is configured
    */
   public void configure(Configuration conf) {
-    for (ConfiguratorConfiguration<?, O> configuratorConfiguration : this.configuratorConfigurations) {
-      configuratorConfiguration.configure(this.toConfigure, conf);
+    ConfigurationEvents.Configure event = null;
+    if (ConfigurationEvents.isRecording()) {
+      event = new ConfigurationEvents.Configure();
+      event.begin();
+    }
+    ConfigurationSchema<O> schema = this.schema;
+    schema.checkInputs();
+    List<ConfiguratorConfiguration<?, O>> configurations = schema.configurations;
+    Map<String, Object> resolved = this.resolvedValues.get();
+    int size = configurations.size();
+    Object[] values = null;
+    ConfigureRoutine routine = event == null && this.generatedConfigure ? schema
+        .routine() : null;
+    if (routine != null) {
+      values = routine.configure(this.toConfigure, conf, resolved);
+    } else {
+      for (int i = 0; i < size; ++i) {
+        ConfiguratorConfiguration<?, O> cc = configurations.get(i);
+        Object value = cc.configure(this.toConfigure, conf);
+        if (values == null && !isResolved(resolved, cc.configuration.getKey(), value)) {
+          values = resolvedValues(resolved, configurations, i);
+        }
+        if (values != null) {
+          values[i] = value;
+        }
+      }
+    }
+    int changed = 0;
+    if (values == null && !isDerived(resolved, schema)) {
+      values = resolvedValues(resolved, configurations, size);
+    }
+    if (values == null) {
+      this.configureCount.incrementAndGet();
+    } else {
+      changed = this.publish(schema, configurations, values, conf);
+    }
+    if (event != null && event.shouldCommit()) {
+      event.target = this.toConfigure.getClass();
+      event.keys = size;
+      event.changedKeys = changed;
+      event.commit();
     }
   }
 
+  /** Returns true if the value is already resolved for the key */
+  static boolean isResolved(Map<String, Object> resolved, String key,
+      Object value) {
+    Object previous = resolved.get(key);
+    if (previous == null) {
+      return value == null && resolved.containsKey(key);
+    }
+    return previous == value || previous.equals(value);
+  }
+
+  /** Returns true if all the derived values are resolved */
+  private static <O> boolean isDerived(Map<String, Object> resolved,
+      ConfigurationSchema<O> schema) {
+    List<DerivedConfiguratorConfiguration<?, O>> derivedOrder = schema.derivedOrder;
+    for (int i = 0; i < derivedOrder.size(); ++i) {
+      if (!resolved.containsKey(derivedOrder.get(i).configuration.getKey())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns an array for the values of the configurations with the first
+   * count values, that are already resolved
+   */
+  private static <O> Object[] resolvedValues(Map<String, Object> resolved,
+      List<ConfiguratorConfiguration<?, O>> configurations, int count) {
+    Object[] values = new Object[configurations.size()];
+    for (int i = 0; i < count; ++i) {
+      values[i] = resolved.get(configurations.get(i).configuration.getKey());
+    }
+    return values;
+  }
+
+  /**
+   * Configure with a routine generated at runtime for the registered
+   * configurations, see {@link ConfigurationManager#configure(Configuration)}.
+   * The routine is a hidden class calling each configuration description
+   * and configurator from its own call site, so that the JIT can inline them
+   * instead of dispatching through the call sites shared by all the
+   * configurations: the descriptions of this package are bound statically,
+   * the configurators after checking the class seen at their call site. It
+   * is generated again after each registration. The configurations are interpreted as usual while a flight
+   * recording is running, to emit the events of each key, or if the routine
+   * can't be generated
+   * 
+   * @return false if the JVM can't define hidden classes, in which case the
+   *         configurations are always interpreted
+   */
+  public boolean enableGeneratedConfigure() {
+    this.generatedConfigure = true;
+    return this.schema.routine() != null;
+  }
+
+  /** Configure by interpreting the registered configurations */
+  public void disableGeneratedConfigure() {
+    this.generatedConfigure = false;
+  }
+
+  /**
+   * Start recording the changes of the raw values of the configurations and
+   * of the derived values, see {@link ConfigurationManager#getRecentChanges()}.
+   * The values of the secret configurations are not recorded
+   * 
+   * @param capacity the number of changes to keep
+   */
+  public void enableChangeLog(int capacity) {
+    this.changeLog = new ConfigurationChangeLog(capacity);
+  }
+
+  /** Stop recording the changes of the values and discard them */
+  public void disableChangeLog() {
+    this.changeLog = null;
+  }
+
+  /**
+   * Returns the most recent changes of the values, from the oldest, or an
+   * empty list if the change log is not enabled
+   */
+  public List<ConfigurationChange> getRecentChanges() {
+    ConfigurationChangeLog changeLog = this.changeLog;
+    return changeLog == null ? Collections.<ConfigurationChange> emptyList()
+        : changeLog.getChanges();
+  }
+
+  /**
+   * Apply the flattened values of a layered configuration
+   * 
+   * @see LayeredConfiguration#toConfiguration()
+   */
+  public void configure(LayeredConfiguration layered) {
+    this.configure(layered.flattened());
+  }
+
+  /**
+   * Publish the values of the configurations, recomputing the derived values
+   * whose inputs changed since the values previously published. If another
+   * configure published its values meanwhile, the changes are computed again
+   * against them, so that no change is lost; the object keeps the values of
+   * the configure that set them last
+   * 
+   * @param conf the configuration the values were read from, for the change
+   *          log, or null if they were read from a snapshot
+   * @return the number of values changed
+   */
+  private int publish(ConfigurationSchema<O> schema,
+      List<ConfiguratorConfiguration<?, O>> configurations, Object[] values,
+      Configuration conf) {
+    long configureId = this.configureCount.incrementAndGet();
+    Object[] previousValues = new Object[values.length];
+    boolean[] known = new boolean[values.length];
+    while (true) {
+      Map<String, Object> published = this.resolvedValues.get();
+      HashMap<String, Object> resolved = new HashMap<String, Object>(published);
+      HashSet<String> changed = new HashSet<String>();
+      List<DerivedConfiguratorConfiguration<?, O>> derivedToSet = new ArrayList<DerivedConfiguratorConfiguration<?, O>>();
+      for (int i = 0; i < values.length; ++i) {
+        String key = configurations.get(i).configuration.getKey();
+        known[i] = resolved.containsKey(key);
+        previousValues[i] = resolved.get(key);
+        if (updateResolvedValue(resolved, key, values[i])) {
+          changed.add(key);
+        }
+      }
+      for (DerivedConfiguratorConfiguration<?, O> derived : schema.derivedOrder) {
+        String key = derived.configuration.getKey();
+        if (resolved.containsKey(key) && !derived.dependsOn(changed)) {
+          continue;
+        }
+        derivedToSet.add(derived);
+        if (updateResolvedValue(resolved, key, derived.derive(resolved))) {
+          changed.add(key);
+        }
+      }
+      if (!this.resolvedValues.compareAndSet(published,
+          Collections.unmodifiableMap(resolved))) {
+        continue;
+      }
+      // the derived values are set only once they are published, not on
+      // each attempt
+      for (DerivedConfiguratorConfiguration<?, O> derived : derivedToSet) {
+        derived.set(this.toConfigure, resolved);
+      }
+      ConfigurationChangeLog changeLog = this.changeLog;
+      for (int i = 0; changeLog != null && i < values.length; ++i) {
+        ConfiguratorConfiguration<?, O> cc = configurations.get(i);
+        if (changed.contains(cc.configuration.getKey())) {
+          changeLog.record(configureId, cc.configuration.getKey(),
+              cc.configuration.isSecret(),
+              known[i] ? cc.format(previousValues[i]) : null,
+              rawValue(cc, conf, values[i]));
+        }
+      }
+      for (int i = 0; changeLog != null && i < derivedToSet.size(); ++i) {
+        String key = derivedToSet.get(i).configuration.getKey();
+        if (changed.contains(key)) {
+          changeLog.record(configureId, key, false,
+              published.containsKey(key) ? String.valueOf(published.get(key))
+                  : null, String.valueOf(resolved.get(key)));
+        }
+      }
+      return changed.size();
+    }
+  }
+
+  /**
+   * Returns the raw value of the configuration in conf, or the value as it
+   * would be written in a {@link Configuration} if it is not set or if there
+   * is no conf, as when configuring from a snapshot
+   */
+  private static String rawValue(ConfiguratorConfiguration<?, ?> cc,
+      Configuration conf, Object value) {
+    String raw = conf == null ? null : cc.configuration.rawValue(conf);
+    return raw == null ? cc.format(value) : raw;
+  }
+
+  /** Store the value for the key and returns true if it changed */
+  private static boolean updateResolvedValue(HashMap<String, Object> resolved,
+      String key, Object value) {
+    boolean known = resolved.containsKey(key);
+    Object previous = resolved.put(key, value);
+    return !known || (previous == null ? value != null : !previous.equals(value));
+  }
+
+  /**
+   * Compute a 64 bits fingerprint of the raw values of the keys, aliases and
+   * deprecated keys of the registered configurations in conf. Two
+   * configurations with the same fingerprint configure the object in the
+   * same way, except for hash collisions. Secret configurations can't be
+   * fingerprinted: their value may be stored in a credential provider
+   * instead of conf, and their clear value must not be fed to a
+   * non-cryptographic hash
+   * 
+   * @throws UnsupportedOperationException if a secret configuration is
+   *           registered
+   * @see ConfiguredInstancePool
+   */
+  public long fingerprint(Configuration conf) {
+    ConfigurationSchema<O> schema = this.schema;
+    long hash = schema.schemaHash;
+    for (ConfiguratorConfiguration<?, O> cc : schema.sortedConfigurations) {
+      if (cc.configuration.isSecret()) {
+        throw new UnsupportedOperationException("cannot fingerprint the secret configuration '"
+            + cc.configuration.getKey() + "'");
+      }
+      hash = fingerprint(hash, conf, cc.configuration.getKey());
+      for (String alias : cc.configuration.aliases()) {
+        hash = fingerprint(hash, conf, alias);
+      }
+      for (String deprecatedKey : cc.configuration.deprecatedKeys()) {
+        hash = fingerprint(hash, conf, deprecatedKey);
+      }
+    }
+    return hash;
+  }
+
+  private static long fingerprint(long hash, Configuration conf, String name) {
+    String value = conf.get(name);
+    return value == null ? Hashing.hashNull(hash) : Hashing.hash(hash, value);
+  }
+
+  /**
+   * Declare that the configuration with key beforeKey must be applied before
+   * the one with key afterKey in
+   * {@link ConfigurationManager#configureAsync(Configuration)}
+   * 
+   * @throws CyclicDependencyException if the ordering closes a cycle
+   */
+  public synchronized void addOrdering(String beforeKey, String afterKey) {
+    if (beforeKey == null || afterKey == null) {
+      throw new NullPointerException();
+    }
+    this.schema = this.schema.withOrdering(beforeKey, afterKey);
+  }
+
+  /**
+   * Asynchronous version of {@link ConfigurationManager#configure(Configuration)}
+   * using virtual threads when available
+   * 
+   * @see ConfigurationManager#configureAsync(Configuration, Executor)
+   */
+  public CompletableFuture<Void> configureAsync(Configuration conf) {
+    return this.configureAsync(conf, ConfigureExecutors.defaultExecutor());
+  }
+
+  /**
+   * Apply the configurations using the executor. Independent configurators,
+   * see {@link Configurator#isIndependent()}, run concurrently as soon as the
+   * configurations declared before them with
+   * {@link ConfigurationManager#addOrdering(String, String)} are applied,
+   * while the others run one after the other. A configurator is skipped if
+   * one of the configurations declared before it failed, otherwise it runs
+   * even if the configurator run before it failed, so that all the failures
+   * are reported. The derived values are recomputed once all the
+   * configurators succeed
+   * 
+   * @param conf the configuration to apply
+   * @param executor where to run the configurators
+   * @return a future completed when all the configurators are done, or
+   *         exceptionally with a {@link ConfigurationFailedException} that
+   *         contains all the failures
+   * @throws IllegalStateException if an ordering refers to a key that is not
+   *           registered, or a derived value depends on a name that is not
+   *           registered
+   */
+  public CompletableFuture<Void> configureAsync(Configuration conf,
+      Executor executor) {
+    final ConfigurationSchema<O> schema = this.schema;
+    schema.checkInputs();
+    final List<ConfiguratorConfiguration<?, O>> order = schema.sortByOrdering();
+    final Object[] values = new Object[order.size()];
+    final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+    HashMap<String, CompletableFuture<Boolean>> done = new HashMap<String, CompletableFuture<Boolean>>();
+    CompletableFuture<Boolean> previous = CompletableFuture.completedFuture(true);
+    for (int i = 0; i < values.length; ++i) {
+      ConfiguratorConfiguration<?, O> cc = order.get(i);
+      List<CompletableFuture<Boolean>> dependencies = new ArrayList<CompletableFuture<Boolean>>();
+      Set<String> before = schema.predecessors.get(cc.configuration.getKey());
+      if (before != null) {
+        for (String beforeKey : before) {
+          dependencies.add(done.get(beforeKey));
+        }
+      }
+      // the sequential configurators wait for the previous one to be done
+      // but, unlike the declared orderings, not for it to succeed
+      boolean independent = cc.configurator.isIndependent();
+      List<CompletableFuture<Boolean>> waited = dependencies;
+      if (!independent) {
+        waited = new ArrayList<CompletableFuture<Boolean>>(dependencies);
+        waited.add(previous);
+      }
+      CompletableFuture<Boolean> future = CompletableFuture.allOf(
+          waited.toArray(new CompletableFuture<?>[waited.size()]))
+          .thenApplyAsync(new ConfigureTask<O>(cc, this.toConfigure, conf,
+              dependencies, values, i, failures), executor);
+      done.put(cc.configuration.getKey(), future);
+      if (!independent) {
+        previous = future;
+      }
+    }
+    return CompletableFuture.allOf(
+        done.values().toArray(new CompletableFuture<?>[done.size()]))
+        .thenApply(new Function<Void, Void>() {
+          public Void apply(Void ignored) {
+            if (!failures.isEmpty()) {
+              throw new ConfigurationFailedException(new ArrayList<Throwable>(failures));
+            }
+            ConfigurationManager.this.publish(schema, order, values, conf);
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Returns the hash of the keys, types and default values of the
+   * configuration descriptions. A snapshot can be used only by a
+   * configuration manager with the same schema hash
+   */
+  public long getSchemaHash() {
+    return this.schema.schemaHash;
+  }
+
+  /**
+   * Write the values resolved by the last call to
+   * {@link ConfigurationManager#configure(Configuration)} in a compact binary
+   * snapshot. Derived values are not written because they are recomputed
+   * from their inputs
+   * 
+   * @param stream where to write the snapshot
+   * @throws IllegalStateException if the manager was never configured
+   * @throws UnsupportedOperationException if the type of a value can't be
+   *           written in a snapshot
+   */
+  public void writeSnapshot(OutputStream stream) throws IOException {
+    ConfigurationSchema<O> schema = this.schema;
+    Map<String, Object> resolved = this.resolvedValues.get();
+    List<ConfiguratorConfiguration<?, O>> sorted = schema.sortedConfigurations;
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    out.writeInt(ConfigurationSnapshot.MAGIC);
+    out.writeInt(ConfigurationSnapshot.VERSION);
+    out.writeLong(schema.schemaHash);
+    out.writeInt(sorted.size());
+    for (ConfiguratorConfiguration<?, O> cc : sorted) {
+      String key = cc.configuration.getKey();
+      if (!resolved.containsKey(key)) {
+        throw new IllegalStateException("configuration key '" + key
+            + "' was never configured");
+      }
+      cc.writeValue(out, resolved.get(key));
+    }
+    out.flush();
+    buffer.writeTo(stream);
+  }
+
+  /**
+   * Configure the object from a snapshot written by
+   * {@link ConfigurationManager#writeSnapshot(OutputStream)}, without
+   * reading any {@link Configuration}. Nothing is configured if the snapshot
+   * was written by a manager with a different schema hash, by another
+   * version of the format, is truncated or corrupted or has a value that
+   * can't be read, so that the caller can fall back to
+   * {@link ConfigurationManager#configure(Configuration)}
+   * 
+   * @param snapshot the snapshot, read from its position
+   * @return true if the object has been configured
+   * @throws IllegalStateException if a derived value depends on a name that
+   *           is not registered
+   */
+  public boolean configureFromSnapshot(ByteBuffer snapshot) {
+    ConfigurationSchema<O> schema = this.schema;
+    schema.checkInputs();
+    List<ConfiguratorConfiguration<?, O>> sorted = schema.sortedConfigurations;
+    ByteBuffer in = snapshot.duplicate();
+    Object[] values = new Object[sorted.size()];
+    try {
+      if (in.getInt() != ConfigurationSnapshot.MAGIC
+          || in.getInt() != ConfigurationSnapshot.VERSION
+          || in.getLong() != schema.schemaHash || in.getInt() != values.length) {
+        return false;
+      }
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = sorted.get(i).readValue(in);
+      }
+    } catch (RuntimeException e) {
+      // truncated or corrupted: a length out of the buffer, a class that
+      // can't be loaded, a type that can't be read from a snapshot...
+      return false;
+    }
+
+    for (int i = 0; i < values.length; ++i) {
+      sorted.get(i).set(this.toConfigure, values[i]);
+    }
+    this.publish(schema, sorted, values, null);
+    return true;
+  }
+
+  /**
+   * Configure the object from a snapshot file, mapped in memory, or from the
+   * fallback configuration if the snapshot can't be used
+   * 
+   * @param snapshot the snapshot file
+   * @param fallback the configuration to use if the snapshot is missing or
+   *          doesn't match
+   * @return true if the object has been configured from the snapshot
+   */
+  public boolean configureFromSnapshot(File snapshot, Configuration fallback)
+      throws IOException {
+    if (snapshot.isFile()) {
+      FileInputStream stream = new FileInputStream(snapshot);
+      try {
+        FileChannel channel = stream.getChannel();
+        if (this.configureFromSnapshot(channel.map(
+            FileChannel.MapMode.READ_ONLY, 0, channel.size()))) {
+          return true;
+        }
+      } finally {
+        stream.close();
+      }
+    }
+    this.configure(fallback);
+    return false;
+  }
+
   /**
    * Add a new configuration. This is a convenient version of
    * {@link ConfigurationManager#addConfiguratorAndConfiguration(Configurator, ConfigurationDescription)}
@@ -157,21 +709,49 @@ public class ConfigurationManager<O> {
    * 
    * @param configurator
    * @param configuration
+   * @throws IllegalArgumentException if the key, an alias or a deprecated
+   *           key is already used by another configuration
    */
-  public <T> void addConfiguratorAndConfiguration(
+  public synchronized <T> void addConfiguratorAndConfiguration(
       Configurator<T, O> configurator, ConfigurationDescription<T> configuration) {
-    this.configuratorConfigurations.add(new ConfiguratorConfiguration<T, O>(
+    this.schema = this.schema.withConfiguration(new ConfiguratorConfiguration<T, O>(
         configuration, configurator));
   }
+
+  /**
+   * Add a new derived configuration with its configurator. The inputs of the
+   * derived configuration, named by key, alias or deprecated key, are
+   * resolved to their keys as soon as they are registered, before or after
+   * it, but must all be registered before calling
+   * {@link ConfigurationManager#configure(Configuration)}, which otherwise
+   * fails before configuring anything
+   * 
+   * @param configurator
+   * @param configuration
+   * @throws IllegalArgumentException if the key is already used
+   * @throws CyclicDependencyException if the derived configuration closes a
+   *           cycle with other derived configurations
+   */
+  public synchronized <T> void addConfiguratorAndDerivedConfiguration(
+      Configurator<T, O> configurator,
+      DerivedConfigurationDescription<T> configuration) {
+    this.schema = this.schema.withDerivedConfiguration(
+        new DerivedConfiguratorConfiguration<T, O>(configuration, configurator));
+  }
   
   @Override
   public String toString() {
+    ConfigurationSchema<O> schema = this.schema;
     StringBuilder builder = new StringBuilder("Configuration keys for "
         + toConfigure.getClass() + ":");
-    for (ConfiguratorConfiguration<?, ?> cc : this.configuratorConfigurations) {
+    for (ConfiguratorConfiguration<?, ?> cc : schema.configurations) {
       builder.append("\n").append(" ")
           .append(cc.configuration.toPrettyString());
     }
+    for (DerivedConfiguratorConfiguration<?, ?> dc : schema.derivedOrder) {
+      builder.append("\n").append(" ")
+          .append(dc.configuration.toPrettyString());
+    }
     return builder.toString();
   }
 }
@@ -216,7 +796,165 @@ class ConfiguratorConfiguration<T, O> {
     return true;
   }
 
-  public void configure(O obj, Configuration conf) {
-    this.configurator.configure(obj, this.configuration, conf);
+  public T configure(O obj, Configuration conf) {
+    if (!ConfigurationEvents.isRecording()) {
+      return this.configurator.configure(obj, this.configuration, conf);
+    }
+    ConfigurationEvents.KeyResolution event = new ConfigurationEvents.KeyResolution();
+    event.begin();
+    T value = this.configurator.configure(obj, this.configuration, conf);
+    if (event.shouldCommit()) {
+      event.key = this.configuration.getKey();
+      event.target = obj.getClass();
+      event.commit();
+    }
+    return value;
+  }
+
+  /** Returns the value as it can be written in a {@link Configuration} */
+  @SuppressWarnings("unchecked")
+  public String format(Object value) {
+    return this.configuration.format((T) value);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void set(O obj, Object value) {
+    this.configurator.set(obj, (T) value);
+  }
+
+  /** Write the value preceded by a byte that is 0 if it is null, 1 otherwise */
+  @SuppressWarnings("unchecked")
+  public void writeValue(DataOutput out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(0);
+    } else {
+      out.writeByte(1);
+      this.configuration.writeValue(out, (T) value);
+    }
+  }
+
+  /** Read a value written by {@link #writeValue(DataOutput, Object)} */
+  public T readValue(ByteBuffer in) {
+    return in.get() == 0 ? null : this.configuration.readValue(in);
+  }
+}
+
+/** A configurator of
+ * {@link ConfigurationManager#configureAsync(Configuration, Executor)} that
+ * runs when the configurations declared before it are done and is skipped if
+ * one of them failed
+ */
+class ConfigureTask<O> implements Function<Void, Boolean> {
+  private final ConfiguratorConfiguration<?, O> configuration;
+  private final O obj;
+  private final Configuration conf;
+  private final List<CompletableFuture<Boolean>> dependencies;
+  private final Object[] values;
+  private final int index;
+  private final ConcurrentLinkedQueue<Throwable> failures;
+
+  public ConfigureTask(ConfiguratorConfiguration<?, O> configuration, O obj,
+      Configuration conf, List<CompletableFuture<Boolean>> dependencies,
+      Object[] values, int index, ConcurrentLinkedQueue<Throwable> failures) {
+    this.configuration = configuration;
+    this.obj = obj;
+    this.conf = conf;
+    this.dependencies = dependencies;
+    this.values = values;
+    this.index = index;
+    this.failures = failures;
+  }
+
+  public Boolean apply(Void ignored) {
+    for (CompletableFuture<Boolean> dependency : this.dependencies) {
+      if (!dependency.join()) {
+        return false;
+      }
+    }
+    try {
+      this.values[this.index] = this.configuration.configure(this.obj, this.conf);
+      return true;
+    } catch (Throwable t) {
+      this.failures.add(t);
+      return false;
+    }
+  }
+}
+
+/** An utility class that encapsulate a derived configuration description
+ * and its configurator
+ */
+class DerivedConfiguratorConfiguration<T, O> {
+  DerivedConfigurationDescription<T> configuration;
+  Configurator<T, O> configurator;
+
+  /**
+   * The keys of the inputs: the names of the inputs resolved through the
+   * name table of the schema, or the names not registered yet
+   */
+  final String[] inputKeys;
+
+  public DerivedConfiguratorConfiguration(
+      DerivedConfigurationDescription<T> configuration,
+      Configurator<T, O> configurator) {
+    this(configuration, configurator, configuration.inputKeys());
+  }
+
+  private DerivedConfiguratorConfiguration(
+      DerivedConfigurationDescription<T> configuration,
+      Configurator<T, O> configurator, String[] inputKeys) {
+    this.configuration = configuration;
+    this.configurator = configurator;
+    this.inputKeys = inputKeys;
+  }
+
+  /**
+   * Returns this derived configuration with the input names resolved to the
+   * keys of the configurations in names, or this if none changed
+   */
+  DerivedConfiguratorConfiguration<T, O> resolveInputs(
+      Map<String, ConfigurationDescription<?>> names) {
+    String[] inputNames = this.configuration.inputKeys();
+    String[] inputKeys = null;
+    for (int i = 0; i < inputNames.length; ++i) {
+      ConfigurationDescription<?> description = names.get(inputNames[i]);
+      String key = description == null ? inputNames[i] : description.getKey();
+      if (inputKeys == null && !key.equals(this.inputKeys[i])) {
+        inputKeys = this.inputKeys.clone();
+      }
+      if (inputKeys != null) {
+        inputKeys[i] = key;
+      }
+    }
+    return inputKeys == null ? this
+        : new DerivedConfiguratorConfiguration<T, O>(this.configuration,
+            this.configurator, inputKeys);
+  }
+
+  /** Returns true if one of the inputs is in changed */
+  public boolean dependsOn(HashSet<String> changed) {
+    for (String inputKey : this.inputKeys) {
+      if (changed.contains(inputKey)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Compute the value from the resolved inputs, without setting it */
+  public T derive(Map<String, Object> resolvedValues) {
+    Object[] inputs = new Object[this.inputKeys.length];
+    for (int i = 0; i < inputs.length; ++i) {
+      inputs[i] = resolvedValues.get(this.inputKeys[i]);
+    }
+    return this.configuration.derive(new DerivedInputs(
+        this.configuration.inputKeys(), inputs));
+  }
+
+  /** Set in the object the value published for the derived key */
+  @SuppressWarnings("unchecked")
+  public void set(O obj, Map<String, Object> resolvedValues) {
+    this.configurator.set(obj,
+        (T) resolvedValues.get(this.configuration.getKey()));
   }
 }
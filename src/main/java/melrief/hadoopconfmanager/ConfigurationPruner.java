@@ -0,0 +1,174 @@
+package melrief.hadoopconfmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import melrief.hadoopconfmanager.ConfigurationDescription.SecretConfiguration;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Remove from a {@link Configuration} the keys that no configuration manager
+ * reads, to reduce the size of the configurations shipped to other
+ * processes, e.g. the configuration of a job sent to its tasks. A key is
+ * kept if it is a key, an alias or a deprecated key of a registered
+ * configuration, if it starts with one of the allowed prefixes, or if a kept
+ * value refers to it with a <code>${key}</code> variable. The credential
+ * provider path is kept when a manager has a {@link FieldType#Secret}.
+ *
+ * <pre>
+ * {@code
+ * ConfigurationPruner pruner = ConfigurationPruner.forManagers(
+ *     Arrays.asList(mapperManager, reducerManager), "mapreduce.", "fs.");
+ * PrunedConfiguration pruned = pruner.prune(jobConf);
+ * LOG.info("saved " + pruned.getSavedBytes() + " bytes");
+ * pruned.getConfiguration().write(out);
+ * }
+ * </pre>
+ */
+public final class ConfigurationPruner {
+
+  /** The names read by the managers */
+  private final ImmutableStringSet names;
+
+  /** The prefixes of the other keys to keep */
+  private final String[] allowedPrefixes;
+
+  private ConfigurationPruner(ImmutableStringSet names, String[] allowedPrefixes) {
+    this.names = names;
+    this.allowedPrefixes = allowedPrefixes;
+  }
+
+  /**
+   * Creates a pruner keeping the keys, aliases and deprecated keys of the
+   * configuration managers and the keys starting with the allowed prefixes
+   */
+  public static ConfigurationPruner forManagers(
+      Collection<? extends ConfigurationManager<?>> managers,
+      String... allowedPrefixes) {
+    ArrayList<String> names = new ArrayList<String>();
+    for (ConfigurationManager<?> manager : managers) {
+      names.addAll(manager.getConfigurationNames());
+      for (ConfigurationDescription<?> description : manager
+          .getConfigurationDescriptions()) {
+        if (description instanceof SecretConfiguration) {
+          names.add(SecretCache.PROVIDER_PATH);
+        }
+      }
+    }
+    for (String prefix : allowedPrefixes) {
+      if (prefix == null) {
+        throw new NullPointerException();
+      }
+    }
+    return new ConfigurationPruner(ImmutableStringSet.of(names
+        .toArray(new String[names.size()])), allowedPrefixes.clone());
+  }
+
+  /** Returns true if the key is read by a manager or allowed by a prefix */
+  public boolean isKept(String key) {
+    if (this.names.contains(key)) {
+      return true;
+    }
+    for (String prefix : this.allowedPrefixes) {
+      if (key.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Copy the kept keys of conf in a new configuration without default
+   * resources, in one pass over conf followed by a lookup of the variables
+   * referred by the kept values. Each key is copied with
+   * {@link Configuration#set(String, String, String)} and its last source,
+   * that is the only way to add a key to a configuration: the final markers
+   * are not copied, and Hadoop also sets the deprecated counterparts of a
+   * key. The kept keys and bytes are counted on the pruned configuration, so
+   * they include these counterparts
+   */
+  public PrunedConfiguration prune(Configuration conf) {
+    Configuration pruned = new Configuration(false);
+    HashSet<String> kept = new HashSet<String>();
+    ArrayList<String> variables = new ArrayList<String>();
+    int keys = 0;
+    long bytes = 0;
+    for (Map.Entry<String, String> entry : conf) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      ++keys;
+      bytes += utf8Length(key) + utf8Length(value);
+      if (this.isKept(key)) {
+        copy(conf, pruned, key, value);
+        kept.add(key);
+        addVariables(value, variables);
+      }
+    }
+    for (int i = 0; i < variables.size(); ++i) {
+      String key = variables.get(i);
+      if (kept.contains(key)) {
+        continue;
+      }
+      String value = conf.getRaw(key);
+      if (value != null) {
+        copy(conf, pruned, key, value);
+        kept.add(key);
+        addVariables(value, variables);
+      }
+    }
+    int keptKeys = 0;
+    long prunedBytes = 0;
+    for (Map.Entry<String, String> entry : pruned) {
+      ++keptKeys;
+      prunedBytes += utf8Length(entry.getKey()) + utf8Length(entry.getValue());
+    }
+    return new PrunedConfiguration(pruned, keys, keptKeys, bytes, prunedBytes);
+  }
+
+  /** Set the raw value of the key in pruned, with its last source in conf */
+  private static void copy(Configuration conf, Configuration pruned,
+      String key, String value) {
+    String[] sources = conf.getPropertySources(key);
+    String source = sources == null || sources.length == 0 ? null
+        : sources[sources.length - 1];
+    pruned.set(key, value, source);
+  }
+
+  /** Add the names of the <code>${name}</code> variables in the value */
+  private static void addVariables(String value, ArrayList<String> variables) {
+    int start = value.indexOf("${");
+    while (start >= 0) {
+      int end = value.indexOf('}', start + 2);
+      if (end < 0) {
+        return;
+      }
+      if (end > start + 2) {
+        variables.add(value.substring(start + 2, end));
+      }
+      start = value.indexOf("${", end + 1);
+    }
+  }
+
+  /** Returns the number of bytes of the string encoded in UTF-8 */
+  static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        ++i;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
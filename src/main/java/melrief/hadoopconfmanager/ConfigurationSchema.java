@@ -0,0 +1,341 @@
+package melrief.hadoopconfmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The immutable set of configurations registered in a
+ * {@link ConfigurationManager}. Registering a configuration creates a new
+ * schema from the current one, which the manager publishes atomically, so
+ * that the schema can be read without locks while other threads register
+ * new configurations
+ *
+ * @param <O> the class to configure
+ */
+final class ConfigurationSchema<O> {
+
+  /** The configurations, in registration order */
+  final List<ConfiguratorConfiguration<?, O>> configurations;
+
+  /** The configuration descriptions by key, alias and deprecated key */
+  final Map<String, ConfigurationDescription<?>> nameTable;
+
+  /** The derived configurations with their configurators, by key */
+  final Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations;
+
+  /** The derived configurations sorted such that each one follows its inputs */
+  final List<DerivedConfiguratorConfiguration<?, O>> derivedOrder;
+
+  /** For each key, the keys that must be configured before it */
+  final Map<String, Set<String>> predecessors;
+
+  /** The configurations sorted by key for snapshots and fingerprints */
+  final List<ConfiguratorConfiguration<?, O>> sortedConfigurations;
+
+  /** The hash of the sorted configurations */
+  final long schemaHash;
+
+  /** Why a derived configuration can't be computed, or null */
+  private final String unknownInput;
+
+  /** The generated configure routine, NO_ROUTINE if it can't be generated */
+  private volatile Object routine;
+
+  private static final Object NO_ROUTINE = new Object();
+
+  private ConfigurationSchema(
+      List<ConfiguratorConfiguration<?, O>> configurations,
+      Map<String, ConfigurationDescription<?>> nameTable,
+      Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations,
+      List<DerivedConfiguratorConfiguration<?, O>> derivedOrder,
+      Map<String, Set<String>> predecessors) {
+    this.configurations = Collections.unmodifiableList(configurations);
+    this.nameTable = Collections.unmodifiableMap(nameTable);
+    this.derivedConfigurations = Collections.unmodifiableMap(derivedConfigurations);
+    this.derivedOrder = Collections.unmodifiableList(derivedOrder);
+    this.predecessors = Collections.unmodifiableMap(predecessors);
+    this.sortedConfigurations = Collections.unmodifiableList(ConfigurationSnapshot
+        .sortByKey(configurations));
+    this.schemaHash = ConfigurationSnapshot.schemaHash(this.sortedConfigurations);
+    this.unknownInput = unknownInput(nameTable, derivedConfigurations,
+        derivedOrder);
+  }
+
+  /**
+   * Returns a message naming the first input of a derived configuration that
+   * is neither a registered name nor a derived key, or null
+   */
+  private static <O> String unknownInput(
+      Map<String, ConfigurationDescription<?>> nameTable,
+      Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations,
+      List<DerivedConfiguratorConfiguration<?, O>> derivedOrder) {
+    for (DerivedConfiguratorConfiguration<?, O> derived : derivedOrder) {
+      for (String inputKey : derived.inputKeys) {
+        if (!nameTable.containsKey(inputKey)
+            && !derivedConfigurations.containsKey(inputKey)) {
+          return "derived configuration '" + derived.configuration.getKey()
+              + "' depends on unknown key '" + inputKey + "'";
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check that the inputs of the derived configurations are registered,
+   * before configuring anything
+   *
+   * @throws IllegalStateException if a derived configuration depends on a
+   *           name that is not registered
+   */
+  void checkInputs() {
+    if (this.unknownInput != null) {
+      throw new IllegalStateException(this.unknownInput);
+    }
+  }
+
+  /**
+   * Returns the configure routine of the configurations, generated the first
+   * time, or null if it can't be generated
+   */
+  ConfigureRoutine routine() {
+    Object routine = this.routine;
+    if (routine == null) {
+      routine = ConfigureRoutineGenerator.generate(this.configurations);
+      if (routine == null) {
+        routine = NO_ROUTINE;
+      }
+      this.routine = routine;
+    }
+    return routine == NO_ROUTINE ? null : (ConfigureRoutine) routine;
+  }
+
+  /** Returns a schema without configurations */
+  static <O> ConfigurationSchema<O> empty() {
+    return new ConfigurationSchema<O>(
+        new ArrayList<ConfiguratorConfiguration<?, O>>(),
+        new HashMap<String, ConfigurationDescription<?>>(),
+        new HashMap<String, DerivedConfiguratorConfiguration<?, O>>(),
+        new ArrayList<DerivedConfiguratorConfiguration<?, O>>(),
+        new HashMap<String, Set<String>>());
+  }
+
+  /**
+   * Returns a new schema with the configuration, or this schema if a
+   * configuration with the same key is already registered
+   *
+   * @throws IllegalArgumentException if the key, an alias or a deprecated
+   *           key is already used by another configuration
+   */
+  ConfigurationSchema<O> withConfiguration(ConfiguratorConfiguration<?, O> cc) {
+    ConfigurationDescription<?> configuration = cc.configuration;
+    HashMap<String, ConfigurationDescription<?>> names = new HashMap<String, ConfigurationDescription<?>>(
+        this.nameTable);
+    this.addName(names, configuration.getKey(), configuration);
+    for (String alias : configuration.aliases()) {
+      this.addName(names, alias, configuration);
+    }
+    for (String deprecatedKey : configuration.deprecatedKeys()) {
+      this.addName(names, deprecatedKey, configuration);
+    }
+    if (this.configurations.contains(cc)) {
+      return this;
+    }
+    ArrayList<ConfiguratorConfiguration<?, O>> configurations = new ArrayList<ConfiguratorConfiguration<?, O>>(
+        this.configurations);
+    configurations.add(cc);
+    Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations = resolveInputs(
+        this.derivedConfigurations, names);
+    List<DerivedConfiguratorConfiguration<?, O>> derivedOrder = derivedConfigurations == this.derivedConfigurations ? this.derivedOrder
+        : sortDerivedConfigurations(derivedConfigurations);
+    return new ConfigurationSchema<O>(configurations, names,
+        derivedConfigurations, derivedOrder, this.predecessors);
+  }
+
+  private void addName(HashMap<String, ConfigurationDescription<?>> names,
+      String name, ConfigurationDescription<?> configuration) {
+    if (this.derivedConfigurations.containsKey(name)) {
+      throw new IllegalArgumentException("name '" + name
+          + "' is already used by a derived configuration");
+    }
+    ConfigurationDescription<?> previous = names.put(name, configuration);
+    if (previous != null && !previous.getKey().equals(configuration.getKey())) {
+      throw new IllegalArgumentException("name '" + name
+          + "' is already used by the configuration key '" + previous.getKey()
+          + "'");
+    }
+  }
+
+  /**
+   * Returns a new schema with the derived configuration
+   *
+   * @throws IllegalArgumentException if the key is already used
+   * @throws CyclicDependencyException if the derived configuration closes a
+   *           cycle with other derived configurations
+   */
+  ConfigurationSchema<O> withDerivedConfiguration(
+      DerivedConfiguratorConfiguration<?, O> dc) {
+    String key = dc.configuration.getKey();
+    if (this.derivedConfigurations.containsKey(key)
+        || this.nameTable.containsKey(key)) {
+      throw new IllegalArgumentException("key '" + key + "' is already used");
+    }
+    HashMap<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations = new HashMap<String, DerivedConfiguratorConfiguration<?, O>>(
+        this.derivedConfigurations);
+    derivedConfigurations.put(key, dc.resolveInputs(this.nameTable));
+    return new ConfigurationSchema<O>(this.configurations, this.nameTable,
+        derivedConfigurations, sortDerivedConfigurations(derivedConfigurations),
+        this.predecessors);
+  }
+
+  /**
+   * Returns the derived configurations with their input names resolved
+   * through the name table, or derivedConfigurations if none changed. The
+   * names of the configurations registered later are resolved then
+   */
+  private static <O> Map<String, DerivedConfiguratorConfiguration<?, O>> resolveInputs(
+      Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations,
+      Map<String, ConfigurationDescription<?>> nameTable) {
+    HashMap<String, DerivedConfiguratorConfiguration<?, O>> resolved = null;
+    for (DerivedConfiguratorConfiguration<?, O> derived : derivedConfigurations
+        .values()) {
+      DerivedConfiguratorConfiguration<?, O> resolvedDerived = derived
+          .resolveInputs(nameTable);
+      if (resolvedDerived != derived) {
+        if (resolved == null) {
+          resolved = new HashMap<String, DerivedConfiguratorConfiguration<?, O>>(
+              derivedConfigurations);
+        }
+        resolved.put(derived.configuration.getKey(), resolvedDerived);
+      }
+    }
+    return resolved == null ? derivedConfigurations : resolved;
+  }
+
+  /** Topologically sort the derived configurations with a depth first visit */
+  private static <O> List<DerivedConfiguratorConfiguration<?, O>> sortDerivedConfigurations(
+      Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations) {
+    List<DerivedConfiguratorConfiguration<?, O>> order = new ArrayList<DerivedConfiguratorConfiguration<?, O>>();
+    HashSet<String> visited = new HashSet<String>();
+    List<String> path = new ArrayList<String>();
+    for (String key : derivedConfigurations.keySet()) {
+      visitDerivedConfiguration(derivedConfigurations, key, visited, path, order);
+    }
+    return order;
+  }
+
+  private static <O> void visitDerivedConfiguration(
+      Map<String, DerivedConfiguratorConfiguration<?, O>> derivedConfigurations,
+      String key, HashSet<String> visited, List<String> path,
+      List<DerivedConfiguratorConfiguration<?, O>> order) {
+    DerivedConfiguratorConfiguration<?, O> derived = derivedConfigurations.get(key);
+    if (derived == null || visited.contains(key)) {
+      return;
+    }
+    int index = path.indexOf(key);
+    if (index >= 0) {
+      List<String> cycle = new ArrayList<String>(path.subList(index, path.size()));
+      cycle.add(key);
+      throw new CyclicDependencyException(cycle);
+    }
+    path.add(key);
+    for (String inputKey : derived.inputKeys) {
+      visitDerivedConfiguration(derivedConfigurations, inputKey, visited, path,
+          order);
+    }
+    path.remove(path.size() - 1);
+    visited.add(key);
+    order.add(derived);
+  }
+
+  /**
+   * Returns a new schema where beforeKey must be configured before afterKey,
+   * or this schema if the ordering is already declared
+   *
+   * @throws CyclicDependencyException if the ordering closes a cycle
+   */
+  ConfigurationSchema<O> withOrdering(String beforeKey, String afterKey) {
+    Set<String> before = this.predecessors.get(afterKey);
+    if (before != null && before.contains(beforeKey)) {
+      return this;
+    }
+    List<String> path = new ArrayList<String>();
+    path.add(afterKey);
+    if (this.findPredecessor(beforeKey, afterKey, path)) {
+      throw new CyclicDependencyException(path);
+    }
+    HashMap<String, Set<String>> predecessors = new HashMap<String, Set<String>>(
+        this.predecessors);
+    HashSet<String> newBefore = before == null ? new HashSet<String>()
+        : new HashSet<String>(before);
+    newBefore.add(beforeKey);
+    predecessors.put(afterKey, Collections.unmodifiableSet(newBefore));
+    return new ConfigurationSchema<O>(this.configurations, this.nameTable,
+        this.derivedConfigurations, this.derivedOrder, predecessors);
+  }
+
+  /** Returns true if target is a predecessor of key, adding the keys to path */
+  private boolean findPredecessor(String key, String target, List<String> path) {
+    path.add(key);
+    if (key.equals(target)) {
+      return true;
+    }
+    Set<String> before = this.predecessors.get(key);
+    if (before != null) {
+      for (String beforeKey : before) {
+        if (this.findPredecessor(beforeKey, target, path)) {
+          return true;
+        }
+      }
+    }
+    path.remove(path.size() - 1);
+    return false;
+  }
+
+  /**
+   * Topologically sort the configurations using the declared orderings
+   *
+   * @throws IllegalStateException if an ordering refers to a key that is not
+   *           registered
+   */
+  List<ConfiguratorConfiguration<?, O>> sortByOrdering() {
+    HashMap<String, ConfiguratorConfiguration<?, O>> byKey = new HashMap<String, ConfiguratorConfiguration<?, O>>();
+    for (ConfiguratorConfiguration<?, O> cc : this.configurations) {
+      byKey.put(cc.configuration.getKey(), cc);
+    }
+    for (String key : this.predecessors.keySet()) {
+      for (String beforeKey : this.predecessors.get(key)) {
+        if (!byKey.containsKey(key) || !byKey.containsKey(beforeKey)) {
+          throw new IllegalStateException("ordering between '" + beforeKey
+              + "' and '" + key + "' refers to an unknown key");
+        }
+      }
+    }
+    List<ConfiguratorConfiguration<?, O>> order = new ArrayList<ConfiguratorConfiguration<?, O>>();
+    HashSet<String> visited = new HashSet<String>();
+    for (ConfiguratorConfiguration<?, O> cc : this.configurations) {
+      this.visitOrdering(cc.configuration.getKey(), byKey, visited, order);
+    }
+    return order;
+  }
+
+  private void visitOrdering(String key,
+      HashMap<String, ConfiguratorConfiguration<?, O>> byKey,
+      HashSet<String> visited, List<ConfiguratorConfiguration<?, O>> order) {
+    if (!visited.add(key)) {
+      return;
+    }
+    Set<String> before = this.predecessors.get(key);
+    if (before != null) {
+      for (String beforeKey : before) {
+        this.visitOrdering(beforeKey, byKey, visited, order);
+      }
+    }
+    order.add(byKey.get(key));
+  }
+}
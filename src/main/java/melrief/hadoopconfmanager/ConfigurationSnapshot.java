@@ -0,0 +1,113 @@
+package melrief.hadoopconfmanager;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helpers to write and read the binary snapshot of the values resolved by a
+ * {@link ConfigurationManager}. A snapshot is composed by:
+ * <ul>
+ * <li>the magic number and the format version (two ints)</li>
+ * <li>the hash of the schema that produced it (a long), see
+ * {@link ConfigurationSnapshot#schemaHash(List)}</li>
+ * <li>the number of values (an int)</li>
+ * <li>for each configuration description sorted by key, a byte that is 0 if
+ * the value is null or 1 followed by the value written by
+ * {@link ConfigurationDescription#writeValue(DataOutput, Object)}</li>
+ * </ul>
+ * All the numbers are big-endian.
+ */
+final class ConfigurationSnapshot {
+
+  static final int MAGIC = 0x48434d53;
+
+  static final int VERSION = 1;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ConfigurationSnapshot() {
+  }
+
+  /** Returns the elements sorted by the key of their description */
+  static <O> List<ConfiguratorConfiguration<?, O>> sortByKey(
+      Collection<ConfiguratorConfiguration<?, O>> configurations) {
+    List<ConfiguratorConfiguration<?, O>> sorted = new ArrayList<ConfiguratorConfiguration<?, O>>(
+        configurations);
+    Collections.sort(sorted, new Comparator<ConfiguratorConfiguration<?, O>>() {
+      public int compare(ConfiguratorConfiguration<?, O> a,
+          ConfiguratorConfiguration<?, O> b) {
+        return a.configuration.getKey().compareTo(b.configuration.getKey());
+      }
+    });
+    return sorted;
+  }
+
+  /**
+   * Compute the 64 bits FNV-1a hash of the keys, the description types and
+   * the default values of the configuration descriptions, that must be
+   * sorted by key
+   */
+  static <O> long schemaHash(List<ConfiguratorConfiguration<?, O>> sorted) {
+    long hash = Hashing.OFFSET;
+    for (ConfiguratorConfiguration<?, O> cc : sorted) {
+      hash = Hashing.hash(hash, cc.configuration.getKey());
+      hash = Hashing.hash(hash, cc.configuration.getClass().getName());
+      hash = Hashing.hash(hash, String.valueOf(cc.configuration.getDefaultValue()));
+    }
+    return hash;
+  }
+
+  /** Write the length of the UTF-8 encoding of s followed by the encoding */
+  static void writeString(DataOutput out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by {@link #writeString(DataOutput, String)}
+   * 
+   * @throws BufferUnderflowException if the length is negative or longer
+   *           than the remaining bytes, before allocating anything
+   */
+  static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0 || length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    if (in.hasArray()) {
+      int position = in.position();
+      String s = new String(in.array(), in.arrayOffset() + position, length,
+          UTF8);
+      in.position(position + length);
+      return s;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Read the number of strings of a collection, each one written by
+   * {@link #writeString(DataOutput, String)}
+   * 
+   * @throws BufferUnderflowException if the number is negative or the
+   *           remaining bytes can't hold as many strings, before allocating
+   *           the collection
+   */
+  static int readStringCount(ByteBuffer in) {
+    int count = in.getInt();
+    if (count < 0 || count > in.remaining() / 4) {
+      throw new BufferUnderflowException();
+    }
+    return count;
+  }
+}
@@ -4,10 +4,26 @@ import org.apache.hadoop.conf.Configuration;
 
 abstract public class Configurator<T, O> {
 
-  public void configure(O obj, ConfigurationDescription<T> configuration,
+  /**
+   * Read the value of the configuration and set it in the object
+   * 
+   * @return the value set
+   */
+  public T configure(O obj, ConfigurationDescription<T> configuration,
       Configuration conf) {
     T value = configuration.checkAndGet(conf);
     this.set(obj, value);
+    return value;
+  }
+
+  /**
+   * Returns true if this configurator can run concurrently with the other
+   * configurators in
+   * {@link ConfigurationManager#configureAsync(Configuration)}. Configurators
+   * that are not independent run one after the other
+   */
+  public boolean isIndependent() {
+    return false;
   }
 
   abstract protected void set(O obj, T value);
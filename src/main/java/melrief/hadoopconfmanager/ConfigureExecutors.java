@@ -0,0 +1,44 @@
+package melrief.hadoopconfmanager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** The default executor of
+ * {@link ConfigurationManager#configureAsync(org.apache.hadoop.conf.Configuration)}:
+ * a virtual thread per task when the JVM supports it, otherwise a cached
+ * pool of daemon threads. The library needs Java 11 for the Flight Recorder
+ * events, see {@link ConfigurationEvents}, while virtual threads need Java
+ * 21, so they are looked up reflectively
+ */
+final class ConfigureExecutors {
+
+  private ConfigureExecutors() {
+  }
+
+  /** Returns the shared default executor */
+  static Executor defaultExecutor() {
+    return Holder.EXECUTOR;
+  }
+
+  private static class Holder {
+    static final Executor EXECUTOR = create();
+  }
+
+  private static Executor create() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (Executor) method.invoke(null);
+    } catch (Exception e) {
+      // virtual threads are not available
+    }
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "configure-async");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,44 @@
+package melrief.hadoopconfmanager;
+
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A straight-line configure routine for a fixed list of configurations,
+ * generated at runtime by {@link ConfigureRoutineGenerator}. Each
+ * configuration has its own call site, so the JIT sees one configurator and
+ * one configuration description per call and can inline through them
+ */
+abstract class ConfigureRoutine {
+
+  /**
+   * Configure the object and returns the values of the configurations, or
+   * null if each value is equal to the resolved one
+   */
+  abstract Object[] configure(Object obj, Configuration conf,
+      Map<String, Object> resolved);
+
+  /**
+   * Record the value of the configuration at index, called by the generated
+   * routines after each configuration
+   *
+   * @param values the values recorded so far, null while all of them are
+   *          already resolved
+   * @return the values recorded, null while all of them are already resolved
+   */
+  static Object[] record(Object[] values, Map<String, Object> resolved,
+      String[] keys, int index, Object value) {
+    if (values == null) {
+      if (ConfigurationManager.isResolved(resolved, keys[index], value)) {
+        return null;
+      }
+      values = new Object[keys.length];
+      for (int i = 0; i < index; ++i) {
+        values[i] = resolved.get(keys[i]);
+      }
+    }
+    values[index] = value;
+    return values;
+  }
+}
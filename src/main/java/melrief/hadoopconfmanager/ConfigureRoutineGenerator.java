@@ -0,0 +1,432 @@
+package melrief.hadoopconfmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Generate a {@link ConfigureRoutine} as a hidden class, see
+ * <code>MethodHandles.Lookup.defineHiddenClass</code>. The class has a
+ * final field for each configurator and configuration description, and for
+ * each configuration in order the routine reads its value with
+ * {@link ConfigurationDescription#checkAndGet(Configuration)},
+ * sets it with {@link Configurator#set(Object, Object)} and calls
+ * {@link ConfigureRoutine#record(Object[], java.util.Map, String[], int, Object)}.
+ * <p>
+ * The descriptions of this package are typed with their own class, so that
+ * the JIT binds <code>checkAndGet</code> and the calls in it without
+ * looking at the receiver; the other descriptions are typed
+ * ConfigurationDescription. The configurators, usually anonymous classes of
+ * other packages, are called through Configurator: each one from its own
+ * call site, whose profile sees one class, so the JIT can inline it but
+ * still checks its class. A configurator overriding
+ * {@link Configurator#configure(Object, ConfigurationDescription, Configuration)}
+ * is called through it. The fields are not constants for the JIT, the
+ * routine being an instance read from the schema.
+ * <p>
+ * The configurations are split in methods of {@link #CHUNK_SIZE}, below the
+ * size HotSpot compiles. The code has no branches, so the class file needs no
+ * stack map frames and is written directly. Hidden classes are looked up by
+ * reflection, so that the generation is unavailable, rather than failing, on
+ * JVMs older than 15
+ */
+final class ConfigureRoutineGenerator {
+
+  /**
+   * The most configurations in a method, about 40 bytes of code each, below
+   * the 8000 bytes over which HotSpot doesn't compile a method
+   */
+  static final int CHUNK_SIZE = 100;
+
+  /** The most configurations in a routine, to stay below the limits of a class */
+  static final int MAX_CONFIGURATIONS = 2000;
+
+  private static final String PACKAGE = "melrief/hadoopconfmanager/";
+  private static final String ROUTINE = PACKAGE + "ConfigureRoutine";
+  private static final String GENERATED = ROUTINE + "$Generated";
+  private static final String CONFIGURATOR = PACKAGE + "Configurator";
+  private static final String DESCRIPTION = PACKAGE + "ConfigurationDescription";
+  private static final String CONFIGURATION = "org/apache/hadoop/conf/Configuration";
+
+  private static final String CONFIGURE_DESCRIPTOR = "(Ljava/lang/Object;L"
+      + CONFIGURATION + ";Ljava/util/Map;)[Ljava/lang/Object;";
+  private static final String CHUNK_DESCRIPTOR = "(Ljava/lang/Object;L"
+      + CONFIGURATION + ";Ljava/util/Map;[Ljava/lang/Object;)[Ljava/lang/Object;";
+  private static final String CONFIGURATOR_CONFIGURE_DESCRIPTOR = "(Ljava/lang/Object;L"
+      + DESCRIPTION + ";L" + CONFIGURATION + ";)Ljava/lang/Object;";
+  private static final String SET_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;)V";
+  private static final String CHECK_AND_GET_DESCRIPTOR = "(L" + CONFIGURATION
+      + ";)Ljava/lang/Object;";
+  private static final String RECORD_DESCRIPTOR = "([Ljava/lang/Object;Ljava/util/Map;[Ljava/lang/String;ILjava/lang/Object;)[Ljava/lang/Object;";
+
+  /** Lookup.defineHiddenClass(byte[], boolean, ClassOption...) or null */
+  private static final Method DEFINE_HIDDEN_CLASS;
+
+  /** An empty array of ClassOption */
+  private static final Object NO_OPTIONS;
+
+  static {
+    Method method = null;
+    Object options = null;
+    try {
+      Class<?> option = Class
+          .forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      options = Array.newInstance(option, 0);
+      method = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+          byte[].class, boolean.class, options.getClass());
+    } catch (Exception e) {
+      // hidden classes are not available
+    }
+    DEFINE_HIDDEN_CLASS = method;
+    NO_OPTIONS = options;
+  }
+
+  private ConfigureRoutineGenerator() {
+  }
+
+  /** Returns true if the JVM can define hidden classes */
+  static boolean isAvailable() {
+    return DEFINE_HIDDEN_CLASS != null;
+  }
+
+  /**
+   * Returns a routine configuring the configurations in order, or null if it
+   * can't be generated
+   */
+  static ConfigureRoutine generate(
+      List<? extends ConfiguratorConfiguration<?, ?>> configurations) {
+    int size = configurations.size();
+    if (!isAvailable() || size > MAX_CONFIGURATIONS) {
+      return null;
+    }
+    Object[] arguments = new Object[2 * size + 1];
+    String[] keys = new String[size];
+    String[] descriptionTypes = new String[size];
+    boolean[] overridden = new boolean[size];
+    for (int i = 0; i < size; ++i) {
+      ConfiguratorConfiguration<?, ?> cc = configurations.get(i);
+      arguments[2 * i] = cc.configurator;
+      arguments[2 * i + 1] = cc.configuration;
+      keys[i] = cc.configuration.getKey();
+      descriptionTypes[i] = descriptionType(cc.configuration.getClass());
+      overridden[i] = overridesConfigure(cc.configurator.getClass());
+    }
+    arguments[2 * size] = keys;
+    try {
+      MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS
+          .invoke(MethodHandles.lookup(),
+              classFile(descriptionTypes, overridden), true, NO_OPTIONS);
+      Constructor<?> constructor = lookup.lookupClass().getDeclaredConstructor(
+          Object[].class);
+      return (ConfigureRoutine) constructor.newInstance((Object) arguments);
+    } catch (Exception e) {
+      return null;
+    } catch (LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the internal name of the class of a description if the routine
+   * can refer to it, that is if it is of this package and class loader, or
+   * the name of ConfigurationDescription otherwise
+   */
+  static String descriptionType(Class<?> cls) {
+    String name = cls.getName().replace('.', '/');
+    if (cls.getClassLoader() == ConfigureRoutineGenerator.class
+        .getClassLoader()
+        && name.startsWith(PACKAGE)
+        && name.indexOf('/', PACKAGE.length()) < 0) {
+      return name;
+    }
+    return DESCRIPTION;
+  }
+
+  /** Returns true if the configurator class overrides Configurator.configure */
+  static boolean overridesConfigure(Class<?> cls) {
+    try {
+      return cls.getMethod("configure", Object.class,
+          ConfigurationDescription.class, Configuration.class)
+          .getDeclaringClass() != Configurator.class;
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Returns the class file of a routine for configurations whose
+   * descriptions have the given types and whose configurators override
+   * configure or not
+   */
+  static byte[] classFile(String[] descriptionTypes, boolean[] overridden) {
+    int size = descriptionTypes.length;
+    int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    ConstantPool pool = new ConstantPool();
+    int thisClass = pool.classRef(GENERATED);
+    int superClass = pool.classRef(ROUTINE);
+    int code = pool.utf8("Code");
+    int keysField = pool.fieldRef(GENERATED, "keys", "[Ljava/lang/String;");
+    int[] configuratorFields = new int[size];
+    int[] descriptionFields = new int[size];
+    int[] descriptionClasses = new int[size];
+    int[] checkAndGets = new int[size];
+    for (int i = 0; i < size; ++i) {
+      configuratorFields[i] = pool.fieldRef(GENERATED, "c" + i, "L"
+          + CONFIGURATOR + ";");
+      descriptionFields[i] = pool.fieldRef(GENERATED, "d" + i, "L"
+          + descriptionTypes[i] + ";");
+      descriptionClasses[i] = pool.classRef(descriptionTypes[i]);
+      checkAndGets[i] = pool.methodRef(descriptionTypes[i], "checkAndGet",
+          CHECK_AND_GET_DESCRIPTOR);
+    }
+    int configuratorClass = pool.classRef(CONFIGURATOR);
+    int stringArrayClass = pool.classRef("[Ljava/lang/String;");
+    int superConstructor = pool.methodRef(ROUTINE, "<init>", "()V");
+    int configure = pool.methodRef(CONFIGURATOR, "configure",
+        CONFIGURATOR_CONFIGURE_DESCRIPTOR);
+    int set = pool.methodRef(CONFIGURATOR, "set", SET_DESCRIPTOR);
+    int record = pool.methodRef(ROUTINE, "record", RECORD_DESCRIPTOR);
+    int[] chunkMethods = new int[chunks];
+    for (int i = 0; i < chunks; ++i) {
+      chunkMethods[i] = pool.methodRef(GENERATED, "configure" + i,
+          CHUNK_DESCRIPTOR);
+    }
+
+    Bytecode constructor = new Bytecode();
+    constructor.op(0x2a).op(0xb7).u2(superConstructor); // aload_0, invokespecial
+    for (int i = 0; i < size; ++i) {
+      constructor.setField(2 * i, configuratorClass, configuratorFields[i]);
+      constructor.setField(2 * i + 1, descriptionClasses[i],
+          descriptionFields[i]);
+    }
+    constructor.setField(2 * size, stringArrayClass, keysField);
+    constructor.op(0xb1); // return
+
+    // configure calls each chunk with the values recorded so far
+    Bytecode routine = new Bytecode();
+    routine.op(0x01).op(0x3a).op(4); // aconst_null, astore 4
+    for (int i = 0; i < chunks; ++i) {
+      routine.op(0x2a).op(0x2b).op(0x2c).op(0x2d); // aload_0 to aload_3
+      routine.op(0x19).op(4); // aload 4
+      routine.op(0xb7).u2(chunkMethods[i]).op(0x3a).op(4); // invokespecial, astore 4
+    }
+    routine.op(0x19).op(4).op(0xb0); // aload 4, areturn
+
+    Bytecode[] chunkCodes = new Bytecode[chunks];
+    for (int chunk = 0; chunk < chunks; ++chunk) {
+      Bytecode bytecode = new Bytecode();
+      int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+      for (int i = chunk * CHUNK_SIZE; i < end; ++i) {
+        if (overridden[i]) {
+          bytecode.op(0x2a).op(0xb4).u2(configuratorFields[i]); // aload_0, getfield
+          bytecode.op(0x2b); // aload_1
+          bytecode.op(0x2a).op(0xb4).u2(descriptionFields[i]); // aload_0, getfield
+          bytecode.op(0x2c).op(0xb6).u2(configure); // aload_2, invokevirtual
+          bytecode.op(0x3a).op(5); // astore 5
+        } else {
+          bytecode.op(0x2a).op(0xb4).u2(descriptionFields[i]); // aload_0, getfield
+          bytecode.op(0x2c).op(0xb6).u2(checkAndGets[i]); // aload_2, invokevirtual
+          bytecode.op(0x3a).op(5); // astore 5
+          bytecode.op(0x2a).op(0xb4).u2(configuratorFields[i]); // aload_0, getfield
+          bytecode.op(0x2b).op(0x19).op(5); // aload_1, aload 5
+          bytecode.op(0xb6).u2(set); // invokevirtual
+        }
+        bytecode.op(0x19).op(4).op(0x2d); // aload 4, aload_3
+        bytecode.op(0x2a).op(0xb4).u2(keysField); // aload_0, getfield
+        bytecode.pushInt(i).op(0x19).op(5); // push i, aload 5
+        bytecode.op(0xb8).u2(record).op(0x3a).op(4); // invokestatic, astore 4
+      }
+      bytecode.op(0x19).op(4).op(0xb0); // aload 4, areturn
+      chunkCodes[chunk] = bytecode;
+    }
+
+    int constructorName = pool.utf8("<init>");
+    int constructorDescriptor = pool.utf8("([Ljava/lang/Object;)V");
+    int routineName = pool.utf8("configure");
+    int routineDescriptor = pool.utf8(CONFIGURE_DESCRIPTOR);
+    int chunkDescriptor = pool.utf8(CHUNK_DESCRIPTOR);
+    int[] chunkNames = new int[chunks];
+    for (int i = 0; i < chunks; ++i) {
+      chunkNames[i] = pool.utf8("configure" + i);
+    }
+    int keysName = pool.utf8("keys");
+    int keysDescriptor = pool.utf8("[Ljava/lang/String;");
+    int configuratorDescriptor = pool.utf8("L" + CONFIGURATOR + ";");
+    int[] configuratorNames = new int[size];
+    int[] descriptionNames = new int[size];
+    int[] descriptionDescriptors = new int[size];
+    for (int i = 0; i < size; ++i) {
+      configuratorNames[i] = pool.utf8("c" + i);
+      descriptionNames[i] = pool.utf8("d" + i);
+      descriptionDescriptors[i] = pool.utf8("L" + descriptionTypes[i] + ";");
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(52);
+      pool.write(out);
+      out.writeShort(0x0031); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(2 * size + 1);
+      for (int i = 0; i < size; ++i) {
+        writeField(out, configuratorNames[i], configuratorDescriptor);
+        writeField(out, descriptionNames[i], descriptionDescriptors[i]);
+      }
+      writeField(out, keysName, keysDescriptor);
+      out.writeShort(2 + chunks);
+      writeMethod(out, 0x0001, constructorName, constructorDescriptor, code,
+          3, 2, constructor); // public
+      writeMethod(out, 0x0001, routineName, routineDescriptor, code, 5, 5,
+          routine); // public
+      for (int i = 0; i < chunks; ++i) {
+        writeMethod(out, 0x0002, chunkNames[i], chunkDescriptor, code, 5, 6,
+            chunkCodes[i]); // private
+      }
+      out.writeShort(0); // attributes
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeField(DataOutputStream out, int name,
+      int descriptor) throws IOException {
+    out.writeShort(0x0012); // private final
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(0);
+  }
+
+  private static void writeMethod(DataOutputStream out, int access,
+      int name, int descriptor, int code, int maxStack, int maxLocals,
+      Bytecode bytecode) throws IOException {
+    out.writeShort(access);
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(1);
+    out.writeShort(code);
+    out.writeInt(12 + bytecode.size());
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(bytecode.size());
+    bytecode.writeTo(out);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // attributes
+  }
+
+  /** The code of a method */
+  private static final class Bytecode extends ByteArrayOutputStream {
+
+    Bytecode op(int opcode) {
+      this.write(opcode);
+      return this;
+    }
+
+    Bytecode u2(int value) {
+      this.write(value >>> 8);
+      this.write(value);
+      return this;
+    }
+
+    /** Push a constant between 0 and 32767 */
+    Bytecode pushInt(int value) {
+      if (value <= 5) {
+        return this.op(0x03 + value); // iconst_<n>
+      } else if (value <= Byte.MAX_VALUE) {
+        return this.op(0x10).op(value); // bipush
+      }
+      return this.op(0x11).u2(value); // sipush
+    }
+
+    /** this.field = (type) args[index], the args being the local 1 */
+    void setField(int index, int type, int field) {
+      this.op(0x2a).op(0x2b).pushInt(index).op(0x32); // aload_0, aload_1, aaload
+      this.op(0xc0).u2(type).op(0xb5).u2(field); // checkcast, putfield
+    }
+  }
+
+  /** The constant pool of a class file, without duplicated entries */
+  private static final class ConstantPool {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(this.bytes);
+    private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+    private int count = 1;
+
+    int utf8(String value) {
+      Integer index = this.indexes.get("U" + value);
+      if (index != null) {
+        return index;
+      }
+      try {
+        this.out.writeByte(1);
+        this.out.writeUTF(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return this.add("U" + value);
+    }
+
+    int classRef(String name) {
+      return this.entry("C" + name, 7, this.utf8(name), -1);
+    }
+
+    int nameAndType(String name, String descriptor) {
+      return this.entry("N" + name + " " + descriptor, 12, this.utf8(name),
+          this.utf8(descriptor));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+      return this.entry("F" + owner + " " + name + " " + descriptor, 9,
+          this.classRef(owner), this.nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      return this.entry("M" + owner + " " + name + " " + descriptor, 10,
+          this.classRef(owner), this.nameAndType(name, descriptor));
+    }
+
+    /** Add an entry with a tag and one or two indexes */
+    private int entry(String key, int tag, int first, int second) {
+      Integer index = this.indexes.get(key);
+      if (index != null) {
+        return index;
+      }
+      try {
+        this.out.writeByte(tag);
+        this.out.writeShort(first);
+        if (second >= 0) {
+          this.out.writeShort(second);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return this.add(key);
+    }
+
+    private int add(String key) {
+      int index = this.count++;
+      this.indexes.put(key, index);
+      return index;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeShort(this.count);
+      this.bytes.writeTo(out);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package melrief.hadoopconfmanager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A bounded pool of configured instances keyed by their class and the
+ * {@link ConfigurationManager#fingerprint(Configuration)} of the
+ * configuration, that allows to skip the construction and the configuration
+ * of an instance when one configured in the same way already exists. The
+ * least recently used instance is evicted when the pool is full.
+ * 
+ * The instances are shared by all the callers that get them with an
+ * equivalent configuration, so they must not be modified after being
+ * configured. The fingerprints are computed by the configuration manager of
+ * an instance created once per factory, so a factory should be reused
+ * rather than created for each call. The instances are created and
+ * configured without holding the lock of the pool, so two threads missing
+ * the same instance can both create it, the pool keeping the first one.
+ * Instances with secret configurations can't be pooled, because their
+ * fingerprint can't tell apart two secrets.
+ * 
+ * <pre>
+ * {@code
+ * static final InstanceFactory<Server> SERVERS = new InstanceFactory<Server>() {
+ *   protected Server newInstance() {
+ *     return new Server();
+ *   }
+ *   protected ConfigurationManager<Server> getConfigurationManager(Server obj) {
+ *     return obj.confManager;
+ *   }
+ * };
+ * 
+ * ConfiguredInstancePool pool = new ConfiguredInstancePool(64);
+ * Server server = pool.get(Server.class, conf, SERVERS);
+ * }
+ * </pre>
+ */
+public class ConfiguredInstancePool {
+
+  private final int maxSize;
+
+  /** The configured instances, in access order, guarded by this */
+  private final LinkedHashMap<PoolKey, Object> instances = new LinkedHashMap<PoolKey, Object>(
+      16, 0.75f, true);
+
+  /** For each factory, the manager of an instance used to compute fingerprints */
+  private final ConcurrentHashMap<InstanceFactory<?>, ConfigurationManager<?>> templates = new ConcurrentHashMap<InstanceFactory<?>, ConfigurationManager<?>>();
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Creates a pool
+   * 
+   * @param maxSize the maximum number of instances in the pool
+   */
+  public ConfiguredInstancePool(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns an instance of cls configured with conf, creating and
+   * configuring a new one only if there is none configured in the same way
+   * 
+   * @param cls the class of the instance
+   * @param conf the configuration
+   * @param factory how to create the instance
+   * @throws UnsupportedOperationException if the configuration manager of
+   *           the instances has a secret configuration
+   */
+  public <O> O get(Class<O> cls, Configuration conf,
+      InstanceFactory<O> factory) {
+    @SuppressWarnings("unchecked")
+    ConfigurationManager<O> template = (ConfigurationManager<O>) this.templates
+        .get(factory);
+    if (template == null) {
+      template = factory.getConfigurationManager(factory.newInstance());
+      @SuppressWarnings("unchecked")
+      ConfigurationManager<O> previous = (ConfigurationManager<O>) this.templates
+          .putIfAbsent(factory, template);
+      if (previous != null) {
+        template = previous;
+      }
+    }
+    PoolKey key = new PoolKey(cls, factory, template.fingerprint(conf));
+    synchronized (this) {
+      Object instance = this.instances.get(key);
+      if (instance != null) {
+        ++this.hits;
+        return cls.cast(instance);
+      }
+      ++this.misses;
+    }
+    O obj = factory.newInstance();
+    factory.getConfigurationManager(obj).configure(conf);
+    synchronized (this) {
+      Object instance = this.instances.get(key);
+      if (instance != null) {
+        // configured meanwhile by another thread
+        return cls.cast(instance);
+      }
+      this.instances.put(key, obj);
+      if (this.instances.size() > this.maxSize) {
+        Iterator<Map.Entry<PoolKey, Object>> eldest = this.instances
+            .entrySet().iterator();
+        eldest.next();
+        eldest.remove();
+        ++this.evictions;
+      }
+    }
+    return obj;
+  }
+
+  /** Remove all the instances of the pool, keeping the statistics */
+  public synchronized void clear() {
+    this.instances.clear();
+  }
+
+  public synchronized int size() {
+    return this.instances.size();
+  }
+
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  public synchronized long getMisses() {
+    return this.misses;
+  }
+
+  public synchronized long getEvictions() {
+    return this.evictions;
+  }
+
+  /** Returns the ratio of hits over all the requests, 0 if none */
+  public synchronized double getHitRate() {
+    long requests = this.hits + this.misses;
+    return requests == 0 ? 0 : (double) this.hits / requests;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ConfiguredInstancePool(size: " + this.instances.size()
+        + ", hits: " + this.hits + ", misses: " + this.misses
+        + ", evictions: " + this.evictions + ")";
+  }
+
+  /** The class, the factory and the fingerprint of a configured instance */
+  private static final class PoolKey {
+    final Class<?> cls;
+    final InstanceFactory<?> factory;
+    final long fingerprint;
+
+    PoolKey(Class<?> cls, InstanceFactory<?> factory, long fingerprint) {
+      this.cls = cls;
+      this.factory = factory;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = 31 * this.cls.hashCode() + this.factory.hashCode();
+      return 31 * result
+          + (int) (this.fingerprint ^ (this.fingerprint >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof PoolKey))
+        return false;
+      PoolKey other = (PoolKey) obj;
+      return this.cls == other.cls && this.factory.equals(other.factory)
+          && this.fingerprint == other.fingerprint;
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package melrief.hadoopconfmanager;
+
+import java.util.List;
+
+public class CyclicDependencyException 
+  extends RuntimeException {
+
+  public CyclicDependencyException(List<String> cycle) {
+    super("Cyclic dependency between configuration keys: " + cycle);
+  }
+
+}
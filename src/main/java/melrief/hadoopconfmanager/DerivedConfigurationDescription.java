@@ -0,0 +1,95 @@
+package melrief.hadoopconfmanager;
+
+import java.util.Arrays;
+
+/** Describe a value that is not read from a
+ * {@link org.apache.hadoop.conf.Configuration} but is computed from the values
+ * of other keys, e.g. a buffer size computed from the maximum number of
+ * connections and the size of a single connection buffer.
+ * A derived configuration is composed by a key, a description, the names of
+ * its inputs and a pure function of the inputs,
+ * {@link DerivedConfigurationDescription#derive(DerivedInputs)}.
+ * The inputs can be the keys, aliases or deprecated keys of other
+ * configuration descriptions or the keys of other derived configurations
+ * registered in the same {@link ConfigurationManager}, which recomputes the
+ * value only when at least one of its inputs changed
+ * 
+ * @param <T> The type of the value
+ */
+public abstract class DerivedConfigurationDescription<T> {
+
+  private final String key;
+  private final String description;
+  private final String[] inputKeys;
+
+  public DerivedConfigurationDescription(String key, String description,
+      String... inputKeys) {
+    if (key == null || description == null || inputKeys == null) {
+      throw new NullPointerException();
+    }
+    for (String inputKey : inputKeys) {
+      if (inputKey == null) {
+        throw new NullPointerException();
+      }
+    }
+    this.key = key;
+    this.description = description;
+    this.inputKeys = inputKeys.clone();
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public String getDescription() {
+    return this.description;
+  }
+
+  /** Returns the names of the inputs, as read from the
+   * {@link DerivedInputs} passed to
+   * {@link DerivedConfigurationDescription#derive(DerivedInputs)} */
+  public String[] getInputKeys() {
+    return this.inputKeys.clone();
+  }
+
+  String[] inputKeys() {
+    return this.inputKeys;
+  }
+
+  public String toPrettyString() {
+    return this.key + " (derived from: " + Arrays.toString(this.inputKeys)
+        + "): " + this.getDescription();
+  }
+
+  /**
+   * Compute the value from the values of the inputs. This must be a pure
+   * function: the result is memoized and this is not called again until
+   * one of the inputs changes
+   * 
+   * @param inputs the values of the inputs, by the names of
+   *          {@link DerivedConfigurationDescription#getInputKeys()}
+   * @return the derived value
+   */
+  abstract protected T derive(DerivedInputs inputs);
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + key.hashCode();
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    @SuppressWarnings("rawtypes")
+    DerivedConfigurationDescription other = (DerivedConfigurationDescription) obj;
+    return key.equals(other.key);
+  }
+}
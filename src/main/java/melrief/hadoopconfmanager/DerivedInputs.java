@@ -0,0 +1,49 @@
+package melrief.hadoopconfmanager;
+
+/**
+ * The values of the inputs of a {@link DerivedConfigurationDescription},
+ * passed to {@link DerivedConfigurationDescription#derive(DerivedInputs)}.
+ * Each value is read with the name of the input given to the description,
+ * and checked against the type expected by the caller, e.g.
+ *
+ * <pre>
+ * {@code
+ * protected Long derive(DerivedInputs inputs) {
+ *   return inputs.get("maxConnections", Integer.class)
+ *       * inputs.get("connectionSize", Long.class);
+ * }
+ * }
+ * </pre>
+ */
+public final class DerivedInputs {
+
+  private final String[] names;
+  private final Object[] values;
+
+  DerivedInputs(String[] names, Object[] values) {
+    this.names = names;
+    this.values = values;
+  }
+
+  /**
+   * Returns the value of the input
+   *
+   * @param name the name of the input, as given to the description
+   * @param type the class of the value, boxed for the primitive types
+   * @throws IllegalArgumentException if name is not an input
+   * @throws ClassCastException if the value is not null and not of the type
+   */
+  public <T> T get(String name, Class<T> type) {
+    for (int i = 0; i < this.names.length; ++i) {
+      if (this.names[i].equals(name)) {
+        Object value = this.values[i];
+        if (value != null && !type.isInstance(value)) {
+          throw new ClassCastException("input '" + name + "' of type "
+              + value.getClass().getName() + " is not a " + type.getName());
+        }
+        return type.cast(value);
+      }
+    }
+    throw new IllegalArgumentException("'" + name + "' is not an input");
+  }
+}
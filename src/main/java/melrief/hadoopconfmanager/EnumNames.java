@@ -0,0 +1,203 @@
+package melrief.hadoopconfmanager;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The constants of an enum class by case-insensitive name, built once per
+ * class. The constants are stored in an open addressing hash table with
+ * linear probing, at most half full, so that a lookup doesn't allocate. Sets
+ * of constants of enums with at most 64 constants can be parsed into a bit
+ * mask, where the bit i is the constant with ordinal i
+ *
+ * @param <E> the enum class
+ */
+final class EnumNames<E extends Enum<E>> {
+
+  private static final ClassValue<EnumNames<?>> TABLES = new ClassValue<EnumNames<?>>() {
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    protected EnumNames<?> computeValue(Class<?> type) {
+      return new EnumNames(type);
+    }
+  };
+
+  private final Class<E> type;
+
+  private final E[] constants;
+
+  private final E[] table;
+
+  private final int mask;
+
+  @SuppressWarnings("unchecked")
+  private EnumNames(Class<E> type) {
+    this.type = type;
+    this.constants = type.getEnumConstants();
+    int capacity = Integer.highestOneBit(Math.max(1, this.constants.length) * 2 - 1) << 1;
+    this.table = (E[]) java.lang.reflect.Array.newInstance(type, capacity);
+    this.mask = capacity - 1;
+    for (E constant : this.constants) {
+      String name = constant.name();
+      int i = hash(name, 0, name.length()) & this.mask;
+      while (this.table[i] != null) {
+        i = (i + 1) & this.mask;
+      }
+      this.table[i] = constant;
+    }
+  }
+
+  /** Returns the table of the enum class */
+  @SuppressWarnings("unchecked")
+  static <E extends Enum<E>> EnumNames<E> of(Class<E> type) {
+    if (!type.isEnum()) {
+      throw new IllegalArgumentException(type + " is not an enum");
+    }
+    return (EnumNames<E>) TABLES.get(type);
+  }
+
+  /**
+   * Returns the enum class of the constants in the set, even if it is an
+   * empty {@link EnumSet}
+   *
+   * @throws IllegalArgumentException if the set is empty and not an EnumSet
+   */
+  static <E extends Enum<E>> Class<E> elementType(Set<E> set) {
+    Set<E> any = set;
+    if (set.isEmpty()) {
+      if (!(set instanceof EnumSet)) {
+        throw new IllegalArgumentException(
+            "the enum of an empty set that is not an EnumSet is unknown");
+      }
+      any = EnumSet.complementOf((EnumSet<E>) set);
+    }
+    if (any.isEmpty()) {
+      throw new IllegalArgumentException("the enum has no constants");
+    }
+    return any.iterator().next().getDeclaringClass();
+  }
+
+  Class<E> type() {
+    return this.type;
+  }
+
+  /** Returns true if the sets of constants can be parsed into a bit mask */
+  boolean hasMask() {
+    return this.constants.length <= Long.SIZE;
+  }
+
+  /**
+   * Returns the constant whose name is equal, ignoring case, to the value
+   * without leading and trailing whitespace
+   *
+   * @throws IllegalArgumentException if there is no such constant
+   */
+  E valueOf(String value) {
+    return this.valueOf(value, 0, value.length());
+  }
+
+  private E valueOf(String value, int start, int end) {
+    while (start < end && value.charAt(start) <= ' ') {
+      ++start;
+    }
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      --end;
+    }
+    int length = end - start;
+    E found = null;
+    int i = hash(value, start, end) & this.mask;
+    E constant;
+    while ((constant = this.table[i]) != null) {
+      String name = constant.name();
+      if (name.length() == length) {
+        if (name.regionMatches(false, 0, value, start, length)) {
+          return constant;
+        }
+        if (found == null && name.regionMatches(true, 0, value, start, length)) {
+          found = constant;
+        }
+      }
+      i = (i + 1) & this.mask;
+    }
+    if (found == null) {
+      throw new IllegalArgumentException("no constant of "
+          + this.type.getName() + " named '" + value.substring(start, end)
+          + "'");
+    }
+    return found;
+  }
+
+  /**
+   * Parse a comma separated list of constant names into a bit mask, ignoring
+   * empty names
+   *
+   * @throws IllegalArgumentException if a name is not a constant
+   * @throws IllegalStateException if the enum has more than 64 constants
+   */
+  long parseMask(String value) {
+    if (!this.hasMask()) {
+      throw new IllegalStateException(this.type.getName()
+          + " has too many constants for a bit mask");
+    }
+    long mask = 0;
+    int start = 0;
+    int length = value.length();
+    while (start <= length) {
+      int end = value.indexOf(',', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (!isBlank(value, start, end)) {
+        mask |= 1L << this.valueOf(value, start, end).ordinal();
+      }
+      start = end + 1;
+    }
+    return mask;
+  }
+
+  /** Parse a comma separated list of constant names, ignoring empty names */
+  EnumSet<E> parseSet(String value) {
+    EnumSet<E> set = EnumSet.noneOf(this.type);
+    int start = 0;
+    int length = value.length();
+    while (start <= length) {
+      int end = value.indexOf(',', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (!isBlank(value, start, end)) {
+        set.add(this.valueOf(value, start, end));
+      }
+      start = end + 1;
+    }
+    return set;
+  }
+
+  /** Returns the set of the constants in the bit mask */
+  EnumSet<E> toSet(long mask) {
+    EnumSet<E> set = EnumSet.noneOf(this.type);
+    for (long bits = mask; bits != 0; bits &= bits - 1) {
+      set.add(this.constants[Long.numberOfTrailingZeros(bits)]);
+    }
+    return set;
+  }
+
+  private static boolean isBlank(String value, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (value.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** A hash of the characters that is the same for names equal ignoring case */
+  private static int hash(String value, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; ++i) {
+      hash = 31 * hash
+          + Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
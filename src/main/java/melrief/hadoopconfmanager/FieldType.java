@@ -2,16 +2,26 @@ package melrief.hadoopconfmanager;
 
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
-import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import melrief.hadoopconfmanager.ConfigurationDescription.BooleanConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.ClassConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.DataSizeConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.DoubleConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.DurationConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.EnumConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.EnumSetConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.FloatConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.IntConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.IntegerRangeSetConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.IntegerRangesConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.LongConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.SecretConfiguration;
 import melrief.hadoopconfmanager.ConfigurationDescription.StringConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.StringListConfiguration;
+import melrief.hadoopconfmanager.ConfigurationDescription.StringSetConfiguration;
 
 import org.apache.hadoop.conf.Configuration.IntegerRanges;
 
@@ -25,7 +35,7 @@ import org.apache.hadoop.conf.Configuration.IntegerRanges;
  */
 public class FieldType<T> {
 
-  static HashMap<FieldType<?>, Constructor<? extends ConfigurationDescription<?>>> registeredClasses = new HashMap<FieldType<?>, Constructor<? extends ConfigurationDescription<?>>>();
+  static ConcurrentHashMap<FieldType<?>, Constructor<? extends ConfigurationDescription<?>>> registeredClasses = new ConcurrentHashMap<FieldType<?>, Constructor<? extends ConfigurationDescription<?>>>();
   
   public final static FieldType<Boolean> Boolean = registerNewConfiguration(
       Boolean.class, BooleanConfiguration.class);
@@ -37,13 +47,78 @@ public class FieldType<T> {
       Integer.class, IntConfiguration.class);
   public final static FieldType<IntegerRanges> IntegerRanges = registerNewConfiguration(
       IntegerRanges.class, IntegerRangesConfiguration.class);
+  /** Ranges of non-negative integers with fast membership, see {@link IntegerRangeSet} */
+  public final static FieldType<IntegerRangeSet> IntegerRangeSet = registerNewConfiguration(
+      IntegerRangeSet.class, IntegerRangeSetConfiguration.class);
   public final static FieldType<Long> Long = registerNewConfiguration(
       Long.class, LongConfiguration.class);
   public final static FieldType<Float> Float = registerNewConfiguration(
       Float.class, FloatConfiguration.class);
   public final static FieldType<String> String = registerNewConfiguration(
       String.class, StringConfiguration.class);
+  /** A comma separated list of strings, see {@link ImmutableStringList#parse(String)}; the default if empty */
+  public final static FieldType<ImmutableStringList> StringList = registerNewConfiguration(
+      ImmutableStringList.class, StringListConfiguration.class);
+  /** A comma separated set of strings with O(1) membership, see {@link ImmutableStringSet}; the default if empty */
+  public final static FieldType<ImmutableStringSet> StringSet = registerNewConfiguration(
+      ImmutableStringSet.class, StringSetConfiguration.class);
+  /** A size in bytes, written with a unit like <code>64m</code>, see {@link Units#parseBytes(CharSequence)} */
+  public final static FieldType<Long> DataSize = registerNewConfiguration(
+      Long.class, DataSizeConfiguration.class);
+  /** A duration in nanoseconds, written with a unit like <code>30s</code>, see {@link Units#parseNanos(CharSequence)} */
+  public final static FieldType<Long> Duration = registerNewConfiguration(
+      Long.class, DurationConfiguration.class);
+  /** A password or a token read from the credential providers, see {@link Secret} */
+  public final static FieldType<Secret> Secret = registerNewConfiguration(
+      Secret.class, SecretConfiguration.class);
   
+  /**
+   * The field types returned by {@link FieldType#enumOf(Class)}. They are not
+   * in registeredClasses, so that they don't pin the enum classes
+   */
+  private static final ClassValue<FieldType<?>> enumTypes = new ClassValue<FieldType<?>>() {
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected FieldType<?> computeValue(Class<?> type) {
+      return new FieldType(type, type, findConstructor(EnumConfiguration.class));
+    }
+  };
+
+  /** The field types returned by {@link FieldType#enumSetOf(Class)} */
+  private static final ClassValue<FieldType<?>> enumSetTypes = new ClassValue<FieldType<?>>() {
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    protected FieldType<?> computeValue(Class<?> type) {
+      return new FieldType(Set.class, type,
+          findConstructor(EnumSetConfiguration.class));
+    }
+  };
+
+  /**
+   * Returns the field type of the constants of an enum, the same for each
+   * call with the class. The default value of the configuration can't be
+   * null because it gives the enum class, and must be a constant of cls
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Enum<E>> FieldType<E> enumOf(Class<E> cls) {
+    EnumNames.of(cls);
+    return (FieldType<E>) enumTypes.get(cls);
+  }
+
+  /**
+   * Returns the field type of the sets of constants of an enum, the same for
+   * each call with the class. The values are unmodifiable sets, shared while
+   * the value of the key doesn't change. The default value of the
+   * configuration can't be null, must be a set of constants of cls and, if
+   * empty, an {@link EnumSet}
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Enum<E>> FieldType<Set<E>> enumSetOf(
+      Class<E> cls) {
+    EnumNames.of(cls);
+    return (FieldType<Set<E>>) enumSetTypes.get(cls);
+  }
+
   /**
    * Register a type and the type of its configuration description
    * 
@@ -58,6 +133,20 @@ public class FieldType<T> {
       throw new NullPointerException();
     }
     
+    FieldType<T1> type = new FieldType<T1>(cls, null,
+        findConstructor(confDescription));
+    registeredClasses.put(type, type.constructor);
+    return type;
+  }
+
+  /**
+   * Returns the constructor of the description type
+   * 
+   * @throws ConstructorNotFoundException if the constructor is not found
+   */
+  @SuppressWarnings("unchecked")
+  private static Constructor<? extends ConfigurationDescription<?>> findConstructor(
+      Class<?> confDescription) {
     Constructor<?>[] constructors = confDescription.getConstructors();
     Constructor<?> constructor = null;
     for (Constructor<?> current : constructors) {
@@ -77,14 +166,70 @@ public class FieldType<T> {
       throw new ConstructorNotFoundException(confDescription);
     }
     
-    FieldType<T1> cc = new FieldType<T1>(cls);
-    registeredClasses.put(cc, (Constructor<? extends ConfigurationDescription<?>>) constructor);
-    return cc;
+    return (Constructor<? extends ConfigurationDescription<?>>) constructor;
   }
   
   private Class<T> cls;
 
-  private FieldType(Class<T> cls) {
+  /**
+   * The enum of the field types returned by {@link FieldType#enumOf(Class)}
+   * and {@link FieldType#enumSetOf(Class)}, null for the others
+   */
+  private final Class<?> enumType;
+
+  /** The constructor of the configuration descriptions of this type */
+  private final Constructor<? extends ConfigurationDescription<?>> constructor;
+
+  private FieldType(Class<T> cls, Class<?> enumType,
+      Constructor<? extends ConfigurationDescription<?>> constructor) {
     this.cls = cls;
+    this.enumType = enumType;
+    this.constructor = constructor;
+  }
+
+  /**
+   * Returns the enum class of the elements of the set if they are all of the
+   * same enum, null otherwise
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private Class<?> elementType(Set<?> set) {
+    for (Object element : set) {
+      if (!(element instanceof Enum)
+          || ((Enum<?>) element).getDeclaringClass() != this.enumType) {
+        return null;
+      }
+    }
+    return set.isEmpty() && !(set instanceof EnumSet) ? null : EnumNames
+        .elementType((Set) set);
+  }
+
+  Constructor<? extends ConfigurationDescription<?>> constructor() {
+    return this.constructor;
+  }
+
+  /**
+   * Check that the default value of a configuration is of the enum of this
+   * field type, that the generic type of the field can't check at runtime
+   *
+   * @throws IllegalArgumentException if it is of another enum
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  void checkDefaultValue(Object defaultValue) {
+    if (this.enumType == null || defaultValue == null) {
+      return;
+    }
+    Class<?> type = null;
+    if (this.cls == Set.class) {
+      if (defaultValue instanceof Set) {
+        type = this.elementType((Set<?>) defaultValue);
+      }
+    } else if (defaultValue instanceof Enum) {
+      type = ((Enum<?>) defaultValue).getDeclaringClass();
+    }
+    if (type != this.enumType) {
+      throw new IllegalArgumentException("the default value " + defaultValue
+          + " is not a " + (this.cls == Set.class ? "set of " : "")
+          + "constant of " + this.enumType.getName());
+    }
   }
 }
@@ -0,0 +1,32 @@
+package melrief.hadoopconfmanager;
+
+/** 64 bits FNV-1a hashing of strings, used for schema hashes and
+ * configuration fingerprints */
+final class Hashing {
+
+  static final long OFFSET = 0xcbf29ce484222325L;
+
+  private static final long PRIME = 0x100000001b3L;
+
+  private Hashing() {
+  }
+
+  /** Hash the characters of s followed by a separator */
+  static long hash(long hash, String s) {
+    for (int i = 0; i < s.length(); ++i) {
+      hash ^= s.charAt(i);
+      hash *= PRIME;
+    }
+    // separate consecutive strings
+    hash ^= 0xffff;
+    hash *= PRIME;
+    return hash;
+  }
+
+  /** Hash a marker for a missing string, distinct from any string */
+  static long hashNull(long hash) {
+    hash ^= 0xfffe;
+    hash *= PRIME;
+    return hash;
+  }
+}
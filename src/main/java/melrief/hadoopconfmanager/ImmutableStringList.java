@@ -0,0 +1,110 @@
+package melrief.hadoopconfmanager;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of interned strings backed by an array, the value of
+ * {@link FieldType#StringList}. Unlike
+ * {@link org.apache.hadoop.conf.Configuration#getStringCollection(String)}
+ * the same instance is returned by the configuration description until the
+ * raw value changes
+ */
+public final class ImmutableStringList extends AbstractList<String>
+    implements RandomAccess {
+
+  private static final ImmutableStringList EMPTY = new ImmutableStringList(
+      new String[0]);
+
+  private final String[] elements;
+
+  private ImmutableStringList(String[] elements) {
+    this.elements = elements;
+  }
+
+  /** Returns a list of the elements, interned */
+  public static ImmutableStringList of(String... elements) {
+    if (elements.length == 0) {
+      return EMPTY;
+    }
+    String[] interned = new String[elements.length];
+    for (int i = 0; i < elements.length; ++i) {
+      interned[i] = elements[i].intern();
+    }
+    return new ImmutableStringList(interned);
+  }
+
+  /** Returns a list of the elements, interned */
+  public static ImmutableStringList copyOf(Collection<String> elements) {
+    return of(elements.toArray(new String[elements.size()]));
+  }
+
+  /**
+   * Parse a comma separated list, trimming the elements and skipping the
+   * empty ones like
+   * {@link org.apache.hadoop.conf.Configuration#getStringCollection(String)}
+   */
+  public static ImmutableStringList parse(String value) {
+    int count = 0;
+    int start = 0;
+    while (start <= value.length()) {
+      int end = endOfElement(value, start);
+      if (!isBlank(value, start, end)) {
+        ++count;
+      }
+      start = end + 1;
+    }
+    if (count == 0) {
+      return EMPTY;
+    }
+    String[] elements = new String[count];
+    count = 0;
+    start = 0;
+    while (start <= value.length()) {
+      int end = endOfElement(value, start);
+      if (!isBlank(value, start, end)) {
+        elements[count++] = value.substring(start, end).trim().intern();
+      }
+      start = end + 1;
+    }
+    return new ImmutableStringList(elements);
+  }
+
+  private static int endOfElement(String value, int start) {
+    int end = value.indexOf(',', start);
+    return end < 0 ? value.length() : end;
+  }
+
+  private static boolean isBlank(String value, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (value.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String get(int index) {
+    return this.elements[index];
+  }
+
+  @Override
+  public int size() {
+    return this.elements.length;
+  }
+
+  /** Returns the elements separated by commas */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < this.elements.length; ++i) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(this.elements[i]);
+    }
+    return builder.toString();
+  }
+}
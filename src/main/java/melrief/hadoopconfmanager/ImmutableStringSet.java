@@ -0,0 +1,101 @@
+package melrief.hadoopconfmanager;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * An immutable set of interned strings, the value of
+ * {@link FieldType#StringSet}. The elements are stored in an open addressing
+ * hash table with linear probing, at most half full, so that
+ * {@link ImmutableStringSet#contains(Object)} is O(1) and doesn't allocate.
+ * The iteration order is the order of the elements when the set was built
+ */
+public final class ImmutableStringSet extends AbstractSet<String> {
+
+  private final ImmutableStringList elements;
+
+  private final String[] table;
+
+  private final int mask;
+
+  private ImmutableStringSet(ImmutableStringList elements) {
+    int capacity = Integer.highestOneBit(Math.max(1, elements.size()) * 2 - 1) << 1;
+    String[] table = new String[capacity];
+    int mask = capacity - 1;
+    String[] unique = new String[elements.size()];
+    int size = 0;
+    for (String element : elements) {
+      int i = spread(element.hashCode()) & mask;
+      while (table[i] != null && !table[i].equals(element)) {
+        i = (i + 1) & mask;
+      }
+      if (table[i] == null) {
+        table[i] = element;
+        unique[size++] = element;
+      }
+    }
+    this.table = table;
+    this.mask = mask;
+    this.elements = size == elements.size() ? elements : ImmutableStringList
+        .of(Arrays.copyOf(unique, size));
+  }
+
+  /** Returns a set of the distinct elements, interned */
+  public static ImmutableStringSet of(String... elements) {
+    return new ImmutableStringSet(ImmutableStringList.of(elements));
+  }
+
+  /** Returns a set of the distinct elements of the list */
+  public static ImmutableStringSet copyOf(ImmutableStringList elements) {
+    return new ImmutableStringSet(elements);
+  }
+
+  /** Parse a comma separated list, see {@link ImmutableStringList#parse(String)} */
+  public static ImmutableStringSet parse(String value) {
+    return new ImmutableStringSet(ImmutableStringList.parse(value));
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Returns true if the string is in the set, without allocating */
+  public boolean contains(String s) {
+    int i = spread(s.hashCode()) & this.mask;
+    String element;
+    while ((element = this.table[i]) != null) {
+      if (element == s || element.equals(s)) {
+        return true;
+      }
+      i = (i + 1) & this.mask;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof String && this.contains((String) o);
+  }
+
+  /** Returns the elements in the order the set was built */
+  public ImmutableStringList asList() {
+    return this.elements;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return this.elements.iterator();
+  }
+
+  @Override
+  public int size() {
+    return this.elements.size();
+  }
+
+  /** Returns the elements separated by commas */
+  @Override
+  public String toString() {
+    return this.elements.toString();
+  }
+}
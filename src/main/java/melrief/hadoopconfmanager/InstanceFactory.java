@@ -0,0 +1,16 @@
+package melrief.hadoopconfmanager;
+
+/**
+ * Create the instances of a class configured by a
+ * {@link ConfigurationManager}, used by {@link ConfiguredInstancePool}
+ * 
+ * @param <O> the class of the instances
+ */
+abstract public class InstanceFactory<O> {
+
+  /** Returns a new instance, not yet configured */
+  abstract protected O newInstance();
+
+  /** Returns the configuration manager of the instance */
+  abstract protected ConfigurationManager<O> getConfigurationManager(O obj);
+}
@@ -0,0 +1,272 @@
+package melrief.hadoopconfmanager;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of non-negative integers, the value of
+ * {@link FieldType#IntegerRangeSet}, written like Hadoop
+ * {@link org.apache.hadoop.conf.Configuration.IntegerRanges}: comma
+ * separated values or ranges <code>a-b</code>, <code>a-</code> (up to
+ * {@link Integer#MAX_VALUE}) or <code>-b</code> (from 0).
+ * The ranges are merged and sorted when parsed. If they span less than
+ * {@link IntegerRangeSet#MAX_BITSET_SPAN} values, membership is tested on a
+ * bitset in constant time, otherwise with a binary search on the ranges.
+ * The values can be iterated without boxing with
+ * {@link IntegerRangeSet#nextIncluded(int)}
+ */
+public final class IntegerRangeSet {
+
+  /** The maximum number of values covered by the bitset */
+  public static final int MAX_BITSET_SPAN = 1 << 16;
+
+  private static final IntegerRangeSet EMPTY = new IntegerRangeSet(new int[0],
+      new int[0]);
+
+  /** The first value of each range, sorted */
+  private final int[] starts;
+
+  /** The last value of each range, inclusive */
+  private final int[] ends;
+
+  /** The bitset of the values from starts[0], null if the span is too large */
+  private final long[] words;
+
+  private IntegerRangeSet(int[] starts, int[] ends) {
+    this.starts = starts;
+    this.ends = ends;
+    if (starts.length > 0
+        && (long) ends[ends.length - 1] - starts[0] < MAX_BITSET_SPAN) {
+      int base = starts[0];
+      long[] words = new long[((ends[ends.length - 1] - base) >> 6) + 1];
+      for (int r = 0; r < starts.length; ++r) {
+        for (int v = starts[r] - base; v <= ends[r] - base; ++v) {
+          words[v >> 6] |= 1L << v;
+        }
+      }
+      this.words = words;
+    } else {
+      this.words = null;
+    }
+  }
+
+  /** Returns the set without values */
+  public static IntegerRangeSet empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Parse comma separated values and ranges
+   * 
+   * @throws IllegalArgumentException if a range is negative or its end is
+   *           before its start
+   * @throws NumberFormatException if a value is not an integer
+   */
+  public static IntegerRangeSet parse(String value) {
+    int count = 0;
+    for (int i = 0; i < value.length(); ++i) {
+      if (value.charAt(i) == ',') {
+        ++count;
+      }
+    }
+    int[] starts = new int[count + 1];
+    int[] ends = new int[count + 1];
+    count = 0;
+    int start = 0;
+    while (start <= value.length()) {
+      int end = value.indexOf(',', start);
+      if (end < 0) {
+        end = value.length();
+      }
+      int from = skipSpaces(value, start, end);
+      int to = trimEnd(value, from, end);
+      if (from < to) {
+        int dash = value.indexOf('-', from);
+        if (dash < 0 || dash >= to) {
+          starts[count] = ends[count] = parseInt(value, from, to);
+        } else {
+          starts[count] = dash == from ? 0 : parseInt(value, from,
+              trimEnd(value, from, dash));
+          int endFrom = skipSpaces(value, dash + 1, to);
+          ends[count] = endFrom == to ? Integer.MAX_VALUE : parseInt(value,
+              endFrom, to);
+        }
+        if (ends[count] < starts[count]) {
+          throw new IllegalArgumentException("IntegerRange from "
+              + starts[count] + " to " + ends[count] + " is invalid");
+        }
+        ++count;
+      }
+      start = end + 1;
+    }
+    return of(starts, ends, count);
+  }
+
+  /** Sort and merge the first count ranges */
+  private static IntegerRangeSet of(int[] starts, int[] ends, int count) {
+    if (count == 0) {
+      return EMPTY;
+    }
+    long[] ranges = new long[count];
+    for (int i = 0; i < count; ++i) {
+      ranges[i] = ((long) starts[i] << 32) | ends[i];
+    }
+    Arrays.sort(ranges);
+    int merged = 0;
+    for (int i = 0; i < count; ++i) {
+      int start = (int) (ranges[i] >>> 32);
+      int end = (int) ranges[i];
+      if (merged > 0 && (long) start <= (long) ends[merged - 1] + 1) {
+        ends[merged - 1] = Math.max(ends[merged - 1], end);
+      } else {
+        starts[merged] = start;
+        ends[merged] = end;
+        ++merged;
+      }
+    }
+    return new IntegerRangeSet(Arrays.copyOf(starts, merged), Arrays.copyOf(
+        ends, merged));
+  }
+
+  private static int skipSpaces(String value, int from, int to) {
+    while (from < to && value.charAt(from) <= ' ') {
+      ++from;
+    }
+    return from;
+  }
+
+  private static int trimEnd(String value, int from, int to) {
+    while (to > from && value.charAt(to - 1) <= ' ') {
+      --to;
+    }
+    return to;
+  }
+
+  /** Parse the non-negative integer between from and to, without allocating */
+  private static int parseInt(String value, int from, int to) {
+    if (from == to) {
+      throw new NumberFormatException("For input string: \"" + value + "\"");
+    }
+    int result = 0;
+    for (int i = from; i < to; ++i) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("For input string: \""
+            + value.substring(from, to) + "\"");
+      }
+      if (result > (Integer.MAX_VALUE - digit) / 10) {
+        throw new NumberFormatException("Value out of range: \""
+            + value.substring(from, to) + "\"");
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  /** Returns true if the value is in one of the ranges */
+  public boolean contains(int value) {
+    if (this.starts.length == 0 || value < this.starts[0]) {
+      return false;
+    }
+    if (this.words != null) {
+      int offset = value - this.starts[0];
+      return (offset >> 6) < this.words.length
+          && (this.words[offset >> 6] & (1L << offset)) != 0;
+    }
+    int range = this.rangeOf(value);
+    return range >= 0 && value <= this.ends[range];
+  }
+
+  /** Returns the index of the last range starting at or before value, or -1 */
+  private int rangeOf(int value) {
+    int low = 0;
+    int high = this.starts.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (this.starts[middle] <= value) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return high;
+  }
+
+  /**
+   * Returns the smallest value in the set greater than or equal to from, or
+   * -1 if there is none. The values can be iterated with
+   * 
+   * <pre>
+   * {@code
+   * for (int v = set.nextIncluded(0); v >= 0; v = set.nextIncluded(v + 1)) {
+   *   ...
+   * }
+   * }
+   * </pre>
+   */
+  public int nextIncluded(int from) {
+    if (from < 0) {
+      // overflow of v + 1 after Integer.MAX_VALUE
+      return -1;
+    }
+    int range = this.rangeOf(from);
+    if (range >= 0 && from <= this.ends[range]) {
+      return from;
+    }
+    return range + 1 < this.starts.length ? this.starts[range + 1] : -1;
+  }
+
+  public boolean isEmpty() {
+    return this.starts.length == 0;
+  }
+
+  /** Returns the number of disjoint ranges */
+  public int getRangeCount() {
+    return this.starts.length;
+  }
+
+  /** Returns the first value of the range at index */
+  public int getRangeStart(int index) {
+    return this.starts[index];
+  }
+
+  /** Returns the last value of the range at index, inclusive */
+  public int getRangeEnd(int index) {
+    return this.ends[index];
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(this.starts) + Arrays.hashCode(this.ends);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    IntegerRangeSet other = (IntegerRangeSet) obj;
+    return Arrays.equals(this.starts, other.starts)
+        && Arrays.equals(this.ends, other.ends);
+  }
+
+  /** Returns the merged ranges in the format accepted by {@link #parse(String)} */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < this.starts.length; ++i) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(this.starts[i]);
+      if (this.ends[i] == Integer.MAX_VALUE) {
+        builder.append('-');
+      } else if (this.ends[i] != this.starts[i]) {
+        builder.append('-').append(this.ends[i]);
+      }
+    }
+    return builder.toString();
+  }
+}
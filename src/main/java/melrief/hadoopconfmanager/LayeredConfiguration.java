@@ -0,0 +1,254 @@
+package melrief.hadoopconfmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Combine several {@link ConfigurationLayer}s with a defined precedence:
+ * a layer overrides all the layers added before it, and the default values
+ * of the configuration descriptions are used for the keys not set in any
+ * layer. The layers are flattened once into an immutable map covering the
+ * keys of a schema, together with the name of the layer each value comes
+ * from, and the flattened view is rebuilt incrementally when a layer changes.
+ * 
+ * <pre>
+ * {@code
+ * LayeredConfiguration layered = LayeredConfiguration.forManagers(
+ *     Collections.singleton(manager),
+ *     ConfigurationLayer.fromConfiguration("site", siteConf),
+ *     ConfigurationLayer.fromEnvironment("APP_"),
+ *     ConfigurationLayer.fromSystemProperties(),
+ *     ConfigurationLayer.fromArguments(args));
+ * manager.configure(layered);
+ * }
+ * </pre>
+ */
+public class LayeredConfiguration {
+
+  /** The source of the keys not set in any layer */
+  public static final String DEFAULT_SOURCE = "default";
+
+  /** The keys covered, in a fixed order */
+  private final String[] keys;
+
+  /** The position of each key in keys */
+  private final HashMap<String, Integer> keyIndexes = new HashMap<String, Integer>();
+
+  /** The layers, from the lowest to the highest precedence */
+  private final ArrayList<ConfigurationLayer> layers = new ArrayList<ConfigurationLayer>();
+
+  /** For each key, the index of the layer of its value or -1 */
+  private final int[] sources;
+
+  /** For each key, its flattened value or null */
+  private final String[] values;
+
+  /** The published views, replaced when a key changes */
+  private Map<String, String> valueView;
+  private Map<String, String> sourceView;
+  private Configuration configuration;
+
+  /**
+   * Creates a layered configuration covering the keys
+   * 
+   * @param keys the keys of the schema
+   * @param layers the layers, from the lowest to the highest precedence
+   */
+  public LayeredConfiguration(Collection<String> keys,
+      ConfigurationLayer... layers) {
+    this.keys = new LinkedHashSet<String>(keys).toArray(new String[0]);
+    for (int i = 0; i < this.keys.length; ++i) {
+      this.keyIndexes.put(this.keys[i], i);
+    }
+    this.sources = new int[this.keys.length];
+    this.values = new String[this.keys.length];
+    for (ConfigurationLayer layer : layers) {
+      this.layers.add(layer);
+    }
+    this.resolveFrom(0);
+  }
+
+  /**
+   * Creates a layered configuration covering the keys, aliases and deprecated
+   * keys of the configuration managers
+   */
+  public static LayeredConfiguration forManagers(
+      Collection<? extends ConfigurationManager<?>> managers,
+      ConfigurationLayer... layers) {
+    LinkedHashSet<String> keys = new LinkedHashSet<String>();
+    for (ConfigurationManager<?> manager : managers) {
+      keys.addAll(manager.getConfigurationNames());
+    }
+    return new LayeredConfiguration(keys, layers);
+  }
+
+  /** Add a layer with the highest precedence */
+  public synchronized void addLayer(ConfigurationLayer layer) {
+    this.layers.add(layer);
+    this.resolveFrom(this.layers.size() - 1);
+  }
+
+  /**
+   * Replace the layer with the same name and rebuild the values that can
+   * come from it
+   * 
+   * @throws IllegalArgumentException if there is no layer with that name
+   */
+  public synchronized void replaceLayer(ConfigurationLayer layer) {
+    int index = this.indexOf(layer.getName());
+    this.layers.set(index, layer);
+    this.resolveFrom(index);
+  }
+
+  /**
+   * Rebuild the values that can come from the layer with the given name,
+   * to be called when the values in the layer change
+   * 
+   * @throws IllegalArgumentException if there is no layer with that name
+   */
+  public synchronized void layerChanged(String name) {
+    this.resolveFrom(this.indexOf(name));
+  }
+
+  private int indexOf(String name) {
+    for (int i = 0; i < this.layers.size(); ++i) {
+      if (this.layers.get(i).getName().equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("unknown layer '" + name + "'");
+  }
+
+  /**
+   * Resolve again the keys whose value comes from a layer with a precedence
+   * lower than or equal to the layer at index. The values of the layers with
+   * a higher precedence are not affected
+   */
+  private void resolveFrom(int index) {
+    int[] changed = new int[this.keys.length];
+    int changedCount = 0;
+    for (int k = 0; k < this.keys.length; ++k) {
+      if (this.values[k] != null && this.sources[k] > index) {
+        continue;
+      }
+      String previousValue = this.values[k];
+      int previousSource = this.sources[k];
+      this.values[k] = null;
+      this.sources[k] = -1;
+      for (int l = this.layers.size() - 1; l >= 0; --l) {
+        String value = this.layers.get(l).get(this.keys[k]);
+        if (value != null) {
+          this.values[k] = value;
+          this.sources[k] = l;
+          break;
+        }
+      }
+      if (this.sources[k] != previousSource
+          || (previousValue == null ? this.values[k] != null
+              : !previousValue.equals(this.values[k]))) {
+        changed[changedCount++] = k;
+      }
+    }
+    this.publish(changed, changedCount);
+  }
+
+  /**
+   * Publish the changed keys. The views are copied, to keep the ones already
+   * returned immutable, and only the changed keys are updated in the copies;
+   * nothing is published if no key changed
+   */
+  private void publish(int[] changed, int changedCount) {
+    if (this.valueView != null && changedCount == 0) {
+      return;
+    }
+    HashMap<String, String> valueView = this.valueView == null ? new HashMap<String, String>()
+        : new HashMap<String, String>(this.valueView);
+    HashMap<String, String> sourceView = this.sourceView == null ? new HashMap<String, String>()
+        : new HashMap<String, String>(this.sourceView);
+    for (int i = 0; i < changedCount; ++i) {
+      int k = changed[i];
+      if (this.values[k] == null) {
+        valueView.remove(this.keys[k]);
+        sourceView.remove(this.keys[k]);
+      } else {
+        valueView.put(this.keys[k], this.values[k]);
+        sourceView.put(this.keys[k], this.layers.get(this.sources[k]).getName());
+      }
+    }
+    this.valueView = Collections.unmodifiableMap(valueView);
+    this.sourceView = Collections.unmodifiableMap(sourceView);
+    this.configuration = null;
+  }
+
+  /** Returns the flattened value of the key or null if not set in any layer */
+  public synchronized String get(String key) {
+    return this.valueView.get(key);
+  }
+
+  /**
+   * Returns the name of the layer of the value of the key,
+   * {@link LayeredConfiguration#DEFAULT_SOURCE} if it is not set in any
+   * layer or null if the key is not covered
+   */
+  public synchronized String getSource(String key) {
+    if (!this.keyIndexes.containsKey(key)) {
+      return null;
+    }
+    String source = this.sourceView.get(key);
+    return source == null ? DEFAULT_SOURCE : source;
+  }
+
+  /** Returns an immutable map of the keys set in at least one layer */
+  public synchronized Map<String, String> getValues() {
+    return this.valueView;
+  }
+
+  /**
+   * Returns an immutable map from the keys set in at least one layer to
+   * the name of the layer of their value
+   */
+  public synchronized Map<String, String> getSources() {
+    return this.sourceView;
+  }
+
+  /** Returns the names of the layers, from the lowest to the highest precedence */
+  public synchronized List<String> getLayerNames() {
+    List<String> names = new ArrayList<String>();
+    for (ConfigurationLayer layer : this.layers) {
+      names.add(layer.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Returns a new {@link Configuration} containing only the flattened values,
+   * without loading the default resources. The caller owns the copy: setting
+   * values in it doesn't change this layered configuration
+   */
+  public Configuration toConfiguration() {
+    return new Configuration(this.flattened());
+  }
+
+  /**
+   * Returns the shared {@link Configuration} of the flattened values, built
+   * again only once a flattened value changed. It must not be modified nor
+   * exposed
+   */
+  synchronized Configuration flattened() {
+    if (this.configuration == null) {
+      Configuration conf = new Configuration(false);
+      for (Map.Entry<String, String> entry : this.valueView.entrySet()) {
+        conf.set(entry.getKey(), entry.getValue());
+      }
+      this.configuration = conf;
+    }
+    return this.configuration;
+  }
+}
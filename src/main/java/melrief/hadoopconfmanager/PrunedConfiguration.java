@@ -0,0 +1,62 @@
+package melrief.hadoopconfmanager;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The result of {@link ConfigurationPruner#prune(Configuration)}: the
+ * configuration with the kept keys and how much smaller it is than the
+ * original one. Sizes are the UTF-8 bytes of the keys and the values, that
+ * is what dominates the serialized form of a {@link Configuration}
+ */
+public final class PrunedConfiguration {
+
+  private final Configuration configuration;
+  private final int originalKeys;
+  private final int keptKeys;
+  private final long originalBytes;
+  private final long prunedBytes;
+
+  PrunedConfiguration(Configuration configuration, int originalKeys,
+      int keptKeys, long originalBytes, long prunedBytes) {
+    this.configuration = configuration;
+    this.originalKeys = originalKeys;
+    this.keptKeys = keptKeys;
+    this.originalBytes = originalBytes;
+    this.prunedBytes = prunedBytes;
+  }
+
+  /** Returns the configuration with the kept keys, without default resources */
+  public Configuration getConfiguration() {
+    return this.configuration;
+  }
+
+  public int getOriginalKeys() {
+    return this.originalKeys;
+  }
+
+  public int getKeptKeys() {
+    return this.keptKeys;
+  }
+
+  public int getRemovedKeys() {
+    return this.originalKeys - this.keptKeys;
+  }
+
+  public long getOriginalBytes() {
+    return this.originalBytes;
+  }
+
+  public long getPrunedBytes() {
+    return this.prunedBytes;
+  }
+
+  public long getSavedBytes() {
+    return this.originalBytes - this.prunedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "kept " + this.keptKeys + " of " + this.originalKeys + " keys, "
+        + this.prunedBytes + " of " + this.originalBytes + " bytes";
+  }
+}
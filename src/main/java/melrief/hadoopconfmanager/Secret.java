@@ -0,0 +1,86 @@
+package melrief.hadoopconfmanager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable handle on a password or a token, the value of
+ * {@link FieldType#Secret}. The characters are never converted to a
+ * {@link String}: {@link Secret#toString()} is masked and
+ * {@link Secret#getChars()} returns a copy that the caller should clear after
+ * use. The secrets are read with
+ * {@link org.apache.hadoop.conf.Configuration#getPassword(String)}, that uses
+ * the credential providers, and cached for
+ * {@link Secret#setCacheTtl(long, TimeUnit)}; concurrent reads of the same
+ * secret load it only once.
+ */
+public final class Secret {
+
+  static final String MASK = "********";
+
+  private final char[] chars;
+
+  private Secret(char[] chars) {
+    this.chars = chars;
+  }
+
+  /** Returns a secret holding a copy of the characters */
+  public static Secret of(char[] chars) {
+    return new Secret(chars.clone());
+  }
+
+  /** Returns a secret taking ownership of the characters */
+  static Secret wrap(char[] chars) {
+    return new Secret(chars);
+  }
+
+  /** Returns a copy of the characters, to be cleared after use */
+  public char[] getChars() {
+    return this.chars.clone();
+  }
+
+  public int length() {
+    return this.chars.length;
+  }
+
+  /** Set how long the secrets are cached, 5 minutes by default */
+  public static void setCacheTtl(long duration, TimeUnit unit) {
+    SecretCache.INSTANCE.setTtl(unit.toNanos(duration));
+  }
+
+  /** Remove all the cached secrets */
+  public static void clearCache() {
+    SecretCache.INSTANCE.clear();
+  }
+
+  @Override
+  public int hashCode() {
+    return this.chars.length;
+  }
+
+  /** Compare the characters in a time that depends only on the length */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof Secret))
+      return false;
+    char[] other = ((Secret) obj).chars;
+    if (other.length != this.chars.length)
+      return false;
+    int difference = 0;
+    for (int i = 0; i < other.length; ++i) {
+      difference |= other[i] ^ this.chars[i];
+    }
+    return difference == 0;
+  }
+
+  @Override
+  public String toString() {
+    return MASK;
+  }
+
+  /** Returns an empty secret, e.g. as default value */
+  public static Secret empty() {
+    return new Secret(new char[0]);
+  }
+}
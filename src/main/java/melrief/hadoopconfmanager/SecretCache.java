@@ -0,0 +1,215 @@
+package melrief.hadoopconfmanager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The cache of the secrets read with
+ * {@link Configuration#getPassword(String)}. A secret is identified by its
+ * name and the credential provider path, so that configurations reading the
+ * same secret from the same providers share it. The value of the name in the
+ * configuration may be the clear-text password, so an entry keeps only its
+ * SHA-256 digest and a weak reference to it, and is replaced when the value
+ * changes. The cache holds at most {@link #MAX_ENTRIES} entries. The first
+ * thread that needs a missing or expired secret loads it while the others
+ * wait for its result.
+ */
+final class SecretCache {
+
+  static final SecretCache INSTANCE = new SecretCache();
+
+  /** The key of the credential provider path in a configuration */
+  static final String PROVIDER_PATH = "hadoop.security.credential.provider.path";
+
+  /** The most entries in the cache, the oldest ones are evicted beyond */
+  static final int MAX_ENTRIES = 1024;
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+  /** Incremented when the cache is cleared, to invalidate the entries held elsewhere */
+  private final AtomicInteger generation = new AtomicInteger();
+
+  private volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+
+  private SecretCache() {
+  }
+
+  void setTtl(long ttlNanos) {
+    if (ttlNanos < 0) {
+      throw new IllegalArgumentException("the ttl can't be negative");
+    }
+    this.ttlNanos = ttlNanos;
+  }
+
+  void clear() {
+    this.generation.incrementAndGet();
+    this.entries.clear();
+  }
+
+  /**
+   * Returns the entry of the secret with the given name, loading it if it is
+   * missing, expired or if the value of the name changed
+   *
+   * @throws UncheckedIOException if the credential providers can't be read
+   */
+  Entry lookup(Configuration conf, String name) {
+    Key key = new Key(name, conf.get(PROVIDER_PATH));
+    String value = conf.get(name);
+    byte[] digest = digest(value);
+    while (true) {
+      long now = System.nanoTime();
+      Entry entry = this.entries.get(key);
+      if (entry != null && MessageDigest.isEqual(entry.digest, digest)
+          && now - entry.loadedAt < this.ttlNanos) {
+        entry.value = new WeakReference<String>(value);
+        return entry;
+      }
+      Entry loading = new Entry(key, digest, value, now, this.generation.get());
+      boolean owner = entry == null ? this.entries.putIfAbsent(key, loading) == null
+          : this.entries.replace(key, entry, loading);
+      if (!owner) {
+        continue;
+      }
+      if (entry == null && this.entries.size() > MAX_ENTRIES) {
+        this.evictOldest();
+      }
+      try {
+        char[] chars = conf.getPassword(name);
+        loading.secret.complete(chars == null ? null : Secret.wrap(chars));
+        return loading;
+      } catch (IOException e) {
+        this.fail(key, loading, e);
+        throw new UncheckedIOException("cannot read the secret '" + name + "'", e);
+      } catch (RuntimeException e) {
+        this.fail(key, loading, e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Returns true if the entry is not expired nor failed and is still the
+   * entry of the secret with the given name in conf, without allocating. The
+   * value of the name must be the instance the entry was looked up with,
+   * otherwise the digests are compared by
+   * {@link #lookup(Configuration, String)}
+   */
+  boolean isFresh(Entry entry, Configuration conf, String name) {
+    if (entry.generation != this.generation.get()
+        || System.nanoTime() - entry.loadedAt >= this.ttlNanos
+        || entry.secret.isCompletedExceptionally()
+        || !entry.key.matches(name, conf.get(PROVIDER_PATH))) {
+      return false;
+    }
+    String value = conf.get(name);
+    return value == null ? entry.digest == null : entry.value.get() == value;
+  }
+
+  /** Remove the entry loaded first, the cache being over its capacity */
+  private void evictOldest() {
+    Entry oldest = null;
+    for (Entry entry : this.entries.values()) {
+      if (oldest == null || entry.loadedAt - oldest.loadedAt < 0) {
+        oldest = entry;
+      }
+    }
+    if (oldest != null) {
+      this.entries.remove(oldest.key, oldest);
+    }
+  }
+
+  private void fail(Key key, Entry loading, Exception e) {
+    this.entries.remove(key, loading);
+    loading.secret.completeExceptionally(e);
+  }
+
+  /** Returns the SHA-256 digest of the value, or null if it is null */
+  private static byte[] digest(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(
+          value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM implements SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static final class Entry {
+    final Key key;
+
+    /** The digest of the value of the name when the secret was loaded */
+    final byte[] digest;
+
+    /** The last instance of the value looked up, to check it without hashing */
+    volatile WeakReference<String> value;
+
+    final long loadedAt;
+    final int generation;
+    final CompletableFuture<Secret> secret = new CompletableFuture<Secret>();
+
+    Entry(Key key, byte[] digest, String value, long loadedAt, int generation) {
+      this.key = key;
+      this.digest = digest;
+      this.value = new WeakReference<String>(value);
+      this.loadedAt = loadedAt;
+      this.generation = generation;
+    }
+
+    /** Returns the secret, waiting for the thread loading it */
+    Secret await() {
+      try {
+        return this.secret.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw new UncheckedIOException((IOException) e.getCause());
+        }
+        throw e;
+      }
+    }
+  }
+
+  static final class Key {
+    final String name;
+    final String providerPath;
+
+    Key(String name, String providerPath) {
+      this.name = name;
+      this.providerPath = providerPath;
+    }
+
+    boolean matches(String name, String providerPath) {
+      return this.name.equals(name)
+          && (this.providerPath == null ? providerPath == null
+              : this.providerPath.equals(providerPath));
+    }
+
+    @Override
+    public int hashCode() {
+      int result = this.name.hashCode();
+      return 31 * result
+          + (this.providerPath == null ? 0 : this.providerPath.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return this.matches(other.name, other.providerPath);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package melrief.hadoopconfmanager;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Parse and format data sizes and durations with unit suffixes, used by
+ * {@link FieldType#DataSize} and {@link FieldType#Duration}. Parsing doesn't
+ * allocate: the characters are scanned once and the value is accumulated in
+ * a primitive long, checking for overflow. A value is an optional sign,
+ * digits and an optional unit, case insensitive and possibly separated by
+ * spaces. The field types resolve boxed {@link Long}s, like every
+ * {@link FieldType}, and memoize them so that an unchanged value is not boxed
+ * again; {@link Units#getBytes(Configuration, String, long)} and
+ * {@link Units#getNanos(Configuration, String, long)} read a primitive long.
+ */
+public final class Units {
+
+  private static final long KB = 1L << 10;
+  private static final long MB = 1L << 20;
+  private static final long GB = 1L << 30;
+  private static final long TB = 1L << 40;
+  private static final long PB = 1L << 50;
+  private static final long EB = 1L << 60;
+
+  private static final long US = 1000L;
+  private static final long MS = 1000L * US;
+  private static final long S = 1000L * MS;
+  private static final long M = 60L * S;
+  private static final long H = 60L * M;
+  private static final long D = 24L * H;
+
+  private Units() {
+  }
+
+  /**
+   * Parse a data size in bytes. The units are <code>b</code>, <code>k</code>,
+   * <code>m</code>, <code>g</code>, <code>t</code>, <code>p</code> and
+   * <code>e</code>, powers of 1024 like in Hadoop, optionally followed by
+   * <code>b</code>, e.g. <code>64m</code> or <code>64MB</code>. A number
+   * without unit is in bytes
+   * 
+   * @throws NumberFormatException if the value is invalid or overflows
+   */
+  public static long parseBytes(CharSequence value) {
+    int end = trimEnd(value);
+    int unitStart = unitStart(value, end);
+    long multiplier;
+    int unitLength = end - unitStart;
+    if (unitLength == 0) {
+      multiplier = 1;
+    } else {
+      // the b of a unit like mb, but bb is not a unit
+      if (unitLength == 2 && lower(value.charAt(end - 1)) == 'b'
+          && lower(value.charAt(unitStart)) != 'b') {
+        --unitLength;
+      }
+      if (unitLength != 1) {
+        throw invalid(value);
+      }
+      switch (lower(value.charAt(unitStart))) {
+      case 'b':
+        multiplier = 1;
+        break;
+      case 'k':
+        multiplier = KB;
+        break;
+      case 'm':
+        multiplier = MB;
+        break;
+      case 'g':
+        multiplier = GB;
+        break;
+      case 't':
+        multiplier = TB;
+        break;
+      case 'p':
+        multiplier = PB;
+        break;
+      case 'e':
+        multiplier = EB;
+        break;
+      default:
+        throw invalid(value);
+      }
+    }
+    return scale(value, unitStart, multiplier);
+  }
+
+  /**
+   * Parse a duration in nanoseconds. The units are <code>ns</code>,
+   * <code>us</code>, <code>ms</code>, <code>s</code>, <code>m</code>,
+   * <code>h</code> and <code>d</code>, e.g. <code>30s</code>. A number
+   * without unit is in milliseconds
+   * 
+   * @throws NumberFormatException if the value is invalid or overflows
+   */
+  public static long parseNanos(CharSequence value) {
+    int end = trimEnd(value);
+    int unitStart = unitStart(value, end);
+    long multiplier;
+    int unitLength = end - unitStart;
+    char first = unitLength > 0 ? lower(value.charAt(unitStart)) : 0;
+    if (unitLength == 0) {
+      multiplier = MS;
+    } else if (unitLength == 1) {
+      switch (first) {
+      case 's':
+        multiplier = S;
+        break;
+      case 'm':
+        multiplier = M;
+        break;
+      case 'h':
+        multiplier = H;
+        break;
+      case 'd':
+        multiplier = D;
+        break;
+      default:
+        throw invalid(value);
+      }
+    } else if (unitLength == 2 && lower(value.charAt(unitStart + 1)) == 's') {
+      switch (first) {
+      case 'n':
+        multiplier = 1;
+        break;
+      case 'u':
+        multiplier = US;
+        break;
+      case 'm':
+        multiplier = MS;
+        break;
+      default:
+        throw invalid(value);
+      }
+    } else {
+      throw invalid(value);
+    }
+    return scale(value, unitStart, multiplier);
+  }
+
+  /**
+   * Returns the data size in bytes of the key, or defaultValue if it is not
+   * set, without boxing it
+   * 
+   * @throws NumberFormatException if the value is invalid or overflows
+   */
+  public static long getBytes(Configuration conf, String key, long defaultValue) {
+    String value = conf.get(key);
+    return value == null ? defaultValue : parseBytes(value);
+  }
+
+  /**
+   * Returns the duration in nanoseconds of the key, or defaultValue if it is
+   * not set, without boxing it
+   * 
+   * @throws NumberFormatException if the value is invalid or overflows
+   */
+  public static long getNanos(Configuration conf, String key, long defaultValue) {
+    String value = conf.get(key);
+    return value == null ? defaultValue : parseNanos(value);
+  }
+
+  /**
+   * Format a data size with the largest unit that represents it exactly. The
+   * result parses back to bytes, including {@link Long#MIN_VALUE} that is
+   * formatted as <code>-8e</code>
+   */
+  public static String formatBytes(long bytes) {
+    if (bytes == 0) {
+      return "0";
+    }
+    long[] multipliers = { EB, PB, TB, GB, MB, KB };
+    String units = "eptgmk";
+    for (int i = 0; i < multipliers.length; ++i) {
+      if (bytes % multipliers[i] == 0) {
+        return (bytes / multipliers[i]) + units.substring(i, i + 1);
+      }
+    }
+    return Long.toString(bytes);
+  }
+
+  /** Format a duration with the largest unit that represents it exactly */
+  public static String formatNanos(long nanos) {
+    if (nanos == 0) {
+      return "0ms";
+    }
+    long[] multipliers = { D, H, M, S, MS, US };
+    String[] units = { "d", "h", "m", "s", "ms", "us" };
+    for (int i = 0; i < multipliers.length; ++i) {
+      if (nanos % multipliers[i] == 0) {
+        return (nanos / multipliers[i]) + units[i];
+      }
+    }
+    return nanos + "ns";
+  }
+
+  /** Returns the end of the value without trailing spaces */
+  private static int trimEnd(CharSequence value) {
+    int end = value.length();
+    while (end > 0 && value.charAt(end - 1) <= ' ') {
+      --end;
+    }
+    return end;
+  }
+
+  /** Returns the index of the first letter of the unit suffix */
+  private static int unitStart(CharSequence value, int end) {
+    int start = end;
+    while (start > 0 && isLetter(value.charAt(start - 1))) {
+      --start;
+    }
+    return start;
+  }
+
+  /** Parse the number before end and multiply it by multiplier */
+  private static long scale(CharSequence value, int end, long multiplier) {
+    int i = 0;
+    while (i < end && value.charAt(i) <= ' ') {
+      ++i;
+    }
+    boolean negative = false;
+    if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+      negative = value.charAt(i) == '-';
+      ++i;
+    }
+    while (end > i && value.charAt(end - 1) <= ' ') {
+      --end;
+    }
+    if (i == end) {
+      throw invalid(value);
+    }
+    // accumulate negatively, like Long.parseLong, so that Long.MIN_VALUE,
+    // whose magnitude is not a positive long, parses too
+    long limit = negative ? Long.MIN_VALUE / multiplier : -(Long.MAX_VALUE / multiplier);
+    long result = 0;
+    for (; i < end; ++i) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw invalid(value);
+      }
+      if (result < limit / 10 || result * 10 < limit + digit) {
+        throw new NumberFormatException("Value out of range: \"" + value + "\"");
+      }
+      result = result * 10 - digit;
+    }
+    result *= multiplier;
+    return negative ? result : -result;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static char lower(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private static NumberFormatException invalid(CharSequence value) {
+    return new NumberFormatException("For input string: \"" + value + "\"");
+  }
+}
@@ -29,7 +29,7 @@ public class ConfigurationDescriptionToStringConverter extends
     keys.add(key);
     
     builder.append(key).append(" type: ").append(conf.getType())
-           .append(" default: ").append(conf.getDefaultValue())
+           .append(" default: ").append(conf.getDefaultValueAsString())
            .append(" description: ").append(conf.getDescription())
            .append(System.lineSeparator());
     
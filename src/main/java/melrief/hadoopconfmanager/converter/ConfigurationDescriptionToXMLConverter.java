@@ -55,7 +55,7 @@ public class ConfigurationDescriptionToXMLConverter extends ConfigurationDescrip
 
     Element value = this.doc.createElement("value");
     value.appendChild(this.doc
-        .createTextNode(conf.getDefaultValue().toString()));
+        .createTextNode(conf.getDefaultValueAsString()));
     prop.appendChild(value);
 
     Element type = this.doc.createElement("type");
@@ -0,0 +1,152 @@
+package melrief.hadoopconfmanager.converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import melrief.hadoopconfmanager.ConfigurationDescription;
+import melrief.hadoopconfmanager.ConfigurationManager;
+import melrief.hadoopconfmanager.LayeredConfiguration;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Write the effective configuration of a {@link ConfigurationManager}: only
+ * the values set in a {@link Configuration} that differ from the default
+ * values of the configuration descriptions, together with where they come
+ * from. Unlike {@link ConfigurationDescriptionConverter}, the values are
+ * written while the descriptions are visited, in a single pass and without
+ * building a document, so that the memory used doesn't depend on the size
+ * of the configuration. Secret values are never written.
+ */
+public abstract class EffectiveConfigurationConverter {
+
+  /**
+   * Write the values of conf that differ from the defaults of the manager
+   * descriptions, with the resources that set them
+   * 
+   * @return the number of values written
+   */
+  public int convert(ConfigurationManager<?> manager, final Configuration conf)
+      throws IOException {
+    return this.convert(manager, conf, new SourceLookup() {
+      String sourceOf(String name) {
+        String[] sources = conf.getPropertySources(name);
+        return sources == null || sources.length == 0 ? null
+            : sources[sources.length - 1];
+      }
+    });
+  }
+
+  /**
+   * Write the values of the layered configuration that differ from the
+   * defaults of the manager descriptions, with the names of their layers
+   * 
+   * @return the number of values written
+   */
+  public int convert(ConfigurationManager<?> manager,
+      final LayeredConfiguration layered) throws IOException {
+    return this.convert(manager, layered.toConfiguration(), new SourceLookup() {
+      String sourceOf(String name) {
+        return layered.getSource(name);
+      }
+    });
+  }
+
+  private int convert(ConfigurationManager<?> manager, Configuration conf,
+      SourceLookup sources) throws IOException {
+    List<ConfigurationDescription<?>> descriptions = new ArrayList<ConfigurationDescription<?>>(
+        manager.getConfigurationDescriptions());
+    Collections.sort(descriptions, new Comparator<ConfigurationDescription<?>>() {
+      public int compare(ConfigurationDescription<?> a,
+          ConfigurationDescription<?> b) {
+        return a.getKey().compareTo(b.getKey());
+      }
+    });
+    int written = 0;
+    this.begin();
+    for (ConfigurationDescription<?> description : descriptions) {
+      if (description.isSecret()) {
+        continue;
+      }
+      String name = setName(description, conf);
+      if (name == null) {
+        continue;
+      }
+      String value = effectiveValue(description, conf, name);
+      if (value != null) {
+        this.writeProperty(description.getKey(), description.getType(), value,
+            name, sources.sourceOf(name));
+        ++written;
+      }
+    }
+    this.end();
+    return written;
+  }
+
+  /** Returns the key, alias or deprecated key set in conf, or null */
+  private static String setName(ConfigurationDescription<?> description,
+      Configuration conf) {
+    if (conf.get(description.getKey()) != null) {
+      return description.getKey();
+    }
+    for (String alias : description.getAliases()) {
+      if (conf.get(alias) != null) {
+        return alias;
+      }
+    }
+    for (String deprecatedKey : description.getDeprecatedKeys()) {
+      if (conf.get(deprecatedKey) != null) {
+        return deprecatedKey;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value if it differs from the default, or the raw value if it
+   * can't be parsed, or null if it is the default. The value is resolved
+   * without the warnings, events and caches of the configure path. The
+   * formatted values are compared, since some types like
+   * {@link Configuration.IntegerRanges} don't implement equals
+   */
+  private static <T> String effectiveValue(
+      ConfigurationDescription<T> description, Configuration conf, String name) {
+    T value;
+    try {
+      value = description.resolve(conf);
+    } catch (RuntimeException e) {
+      return conf.get(name);
+    }
+    String formatted = description.format(value);
+    if (formatted.equals(description.format(description.getDefaultValue()))) {
+      return null;
+    }
+    return formatted;
+  }
+
+  /** Called before writing the first property */
+  protected abstract void begin() throws IOException;
+
+  /**
+   * Write a value that differs from the default
+   * 
+   * @param key the configuration key
+   * @param type the type of the value
+   * @param value the effective value
+   * @param name the name used to set the value: the key, an alias or a
+   *          deprecated key
+   * @param source where the value comes from, or null if unknown
+   */
+  protected abstract void writeProperty(String key, String type, String value,
+      String name, String source) throws IOException;
+
+  /** Called after writing the last property */
+  protected abstract void end() throws IOException;
+
+  private static abstract class SourceLookup {
+    abstract String sourceOf(String name);
+  }
+}
@@ -0,0 +1,43 @@
+package melrief.hadoopconfmanager.converter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Write the effective configuration as plain text, one value per line:
+ * <code>key=value (source: site.xml)</code>
+ */
+public class EffectiveConfigurationToStringConverter extends
+    EffectiveConfigurationConverter {
+
+  private final Writer writer;
+
+  public EffectiveConfigurationToStringConverter(OutputStream stream) {
+    this.writer = new OutputStreamWriter(stream, Charset.forName("UTF-8"));
+  }
+
+  @Override
+  protected void begin() {
+  }
+
+  @Override
+  protected void writeProperty(String key, String type, String value,
+      String name, String source) throws IOException {
+    this.writer.append(key).append('=').append(value);
+    if (!name.equals(key)) {
+      this.writer.append(" (set as: ").append(name).append(')');
+    }
+    if (source != null) {
+      this.writer.append(" (source: ").append(source).append(')');
+    }
+    this.writer.append(System.lineSeparator());
+  }
+
+  @Override
+  protected void end() throws IOException {
+    this.writer.flush();
+  }
+}
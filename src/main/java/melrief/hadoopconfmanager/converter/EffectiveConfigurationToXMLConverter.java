@@ -0,0 +1,82 @@
+package melrief.hadoopconfmanager.converter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Write the effective configuration as Hadoop XML properties with a
+ * <code>source</code> element, using a streaming XML writer
+ */
+public class EffectiveConfigurationToXMLConverter extends
+    EffectiveConfigurationConverter {
+
+  private final XMLStreamWriter writer;
+
+  private EffectiveConfigurationToXMLConverter(XMLStreamWriter writer) {
+    this.writer = writer;
+  }
+
+  public static EffectiveConfigurationToXMLConverter newInstance(
+      OutputStream stream) throws XMLStreamException {
+    return new EffectiveConfigurationToXMLConverter(XMLOutputFactory
+        .newInstance().createXMLStreamWriter(stream, "UTF-8"));
+  }
+
+  @Override
+  protected void begin() throws IOException {
+    try {
+      this.writer.writeStartDocument("UTF-8", "1.0");
+      this.writer.writeCharacters("\n");
+      this.writer.writeStartElement("configuration");
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  protected void writeProperty(String key, String type, String value,
+      String name, String source) throws IOException {
+    try {
+      this.writer.writeCharacters("\n  ");
+      this.writer.writeStartElement("property");
+      this.writeElement("name", key);
+      this.writeElement("value", value);
+      this.writeElement("type", type);
+      if (!name.equals(key)) {
+        this.writeElement("setAs", name);
+      }
+      if (source != null) {
+        this.writeElement("source", source);
+      }
+      this.writer.writeCharacters("\n  ");
+      this.writer.writeEndElement();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void writeElement(String element, String text)
+      throws XMLStreamException {
+    this.writer.writeCharacters("\n    ");
+    this.writer.writeStartElement(element);
+    this.writer.writeCharacters(text);
+    this.writer.writeEndElement();
+  }
+
+  @Override
+  protected void end() throws IOException {
+    try {
+      this.writer.writeCharacters("\n");
+      this.writer.writeEndElement();
+      this.writer.writeEndDocument();
+      this.writer.writeCharacters("\n");
+      this.writer.flush();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+}
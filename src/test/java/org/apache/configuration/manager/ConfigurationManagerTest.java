@@ -1,13 +1,61 @@
 package org.apache.configuration.manager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import jdk.jfr.Recording;
+
+import melrief.hadoopconfmanager.ConfigurationChange;
 import melrief.hadoopconfmanager.ConfigurationDescription;
+import melrief.hadoopconfmanager.ConfigurationFailedException;
+import melrief.hadoopconfmanager.ConfigurationLayer;
 import melrief.hadoopconfmanager.ConfigurationManager;
+import melrief.hadoopconfmanager.ConfigurationPruner;
+import melrief.hadoopconfmanager.ConfiguredInstancePool;
 import melrief.hadoopconfmanager.Configurator;
 import melrief.hadoopconfmanager.ConstructorNotFoundException;
+import melrief.hadoopconfmanager.CyclicDependencyException;
+import melrief.hadoopconfmanager.DerivedConfigurationDescription;
+import melrief.hadoopconfmanager.DerivedInputs;
 import melrief.hadoopconfmanager.FieldType;
+import melrief.hadoopconfmanager.ImmutableStringList;
+import melrief.hadoopconfmanager.ImmutableStringSet;
+import melrief.hadoopconfmanager.InstanceFactory;
+import melrief.hadoopconfmanager.IntegerRangeSet;
+import melrief.hadoopconfmanager.LayeredConfiguration;
+import melrief.hadoopconfmanager.PrunedConfiguration;
+import melrief.hadoopconfmanager.Secret;
+import melrief.hadoopconfmanager.Units;
+import melrief.hadoopconfmanager.converter.EffectiveConfigurationToStringConverter;
+import melrief.hadoopconfmanager.converter.EffectiveConfigurationToXMLConverter;
 
 import org.apache.hadoop.conf.Configuration;
 
@@ -77,6 +125,14 @@ public class ConfigurationManagerTest extends TestCase {
     conf.setInt("i", 1);
     manager.configure(conf);
     assertTrue(obj.internalInteger.i == 1);
+
+    // the type reads only its key, so it can't have other names
+    try {
+      ConfigurationDescription.from(fieldType, "j", "another", new MyInteger(0),
+          null).withAliases("k");
+      fail("MyInteger can't be read using an alias");
+    } catch (UnsupportedOperationException e) {
+    }
   }
 
   static public class MyIntegerConfDescriptionWrong extends
@@ -190,4 +246,1300 @@ public class ConfigurationManagerTest extends TestCase {
     assertTrue(obj.l == 1l);
   }
 
+  static class BufferContainer {
+    int maxConnections;
+    long bufferSize;
+    int derivations;
+  }
+
+  static ConfigurationManager<BufferContainer> bufferManager(
+      final BufferContainer obj) throws IllegalArgumentException,
+      InstantiationException, IllegalAccessException, InvocationTargetException {
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorAndDerivedConfiguration(
+        new Configurator<Long, BufferContainer>() {
+          protected void set(BufferContainer obj, Long value) {
+            obj.bufferSize = value;
+          }
+        }, new DerivedConfigurationDescription<Long>("bufferSize",
+            "total buffer size", "maxConnections", "connectionSize") {
+          protected Long derive(DerivedInputs inputs) {
+            obj.derivations++;
+            return inputs.get("maxConnections", Integer.class)
+                * inputs.get("connectionSize", Long.class);
+          }
+        });
+    manager.addConfiguratorFor(FieldType.Integer, "maxConnections",
+        "max connections", 8, new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+            obj.maxConnections = value;
+          }
+        });
+    manager.addConfiguratorFor(FieldType.Long, "connectionSize",
+        "size of a connection buffer", 1024l,
+        new Configurator<Long, BufferContainer>() {
+          protected void set(BufferContainer obj, Long value) {
+          }
+        });
+    return manager;
+  }
+
+  // test derived values are recomputed only when their inputs change
+  public void testDerivedConfiguration() throws IllegalArgumentException,
+      InstantiationException, IllegalAccessException, InvocationTargetException {
+    BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = bufferManager(obj);
+    Configuration conf = new Configuration();
+
+    manager.configure(conf);
+    assertEquals(8 * 1024l, obj.bufferSize);
+    assertEquals(1, obj.derivations);
+
+    manager.configure(conf);
+    assertEquals(1, obj.derivations);
+
+    conf.setInt("maxConnections", 16);
+    manager.configure(conf);
+    assertEquals(16 * 1024l, obj.bufferSize);
+    assertEquals(2, obj.derivations);
+  }
+
+  // test derived values are set once, after they are published, when
+  // another configure publishes first
+  public void testDerivedConfigurationConcurrentPublish() throws Exception {
+    final BufferContainer obj = new BufferContainer();
+    final ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj);
+    final Configuration other = new Configuration();
+    other.setInt("maxConnections", 5);
+    manager.addConfiguratorFor(FieldType.Integer, "maxConnections",
+        "max connections", 8, new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+            obj.maxConnections = value;
+          }
+        });
+    manager.addConfiguratorAndDerivedConfiguration(
+        new Configurator<Long, BufferContainer>() {
+          protected void set(BufferContainer obj, Long value) {
+            obj.derivations++;
+            obj.bufferSize = value;
+          }
+        }, new DerivedConfigurationDescription<Long>("bufferSize",
+            "total buffer size", "maxConnections") {
+          boolean first = true;
+
+          protected Long derive(DerivedInputs inputs) {
+            if (this.first) {
+              // publish another configure while this one is publishing
+              this.first = false;
+              manager.configure(other);
+            }
+            return 2l * inputs.get("maxConnections", Integer.class);
+          }
+        });
+
+    Configuration conf = new Configuration();
+    conf.setInt("maxConnections", 1);
+    manager.configure(conf);
+    assertEquals(2, obj.derivations);
+    assertEquals(2l, obj.bufferSize);
+  }
+
+  // test cycles between derived values are rejected when registered
+  public void testDerivedConfigurationCycle() {
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(new BufferContainer());
+    Configurator<Long, BufferContainer> ignore = new Configurator<Long, BufferContainer>() {
+      protected void set(BufferContainer obj, Long value) {
+      }
+    };
+    manager.addConfiguratorAndDerivedConfiguration(ignore,
+        new DerivedConfigurationDescription<Long>("a", "a", "b") {
+          protected Long derive(DerivedInputs inputs) {
+            return inputs.get("b", Long.class);
+          }
+        });
+    try {
+      manager.addConfiguratorAndDerivedConfiguration(ignore,
+          new DerivedConfigurationDescription<Long>("b", "b", "a") {
+            protected Long derive(DerivedInputs inputs) {
+              return inputs.get("a", Long.class);
+            }
+          });
+      Assert.fail("cycle between a and b accepted");
+    } catch (CyclicDependencyException e) {
+    }
+    assertEquals(1, manager.getDerivedConfigurationDescriptions().size());
+  }
+
+  // test derived inputs named by aliases are resolved whenever they are
+  // registered, and unknown inputs fail before anything is configured
+  public void testDerivedConfigurationInputNames() throws Exception {
+    final BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorAndConfiguration(
+        new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+            obj.maxConnections = value;
+          }
+        },
+        ConfigurationDescription.from(FieldType.Integer, "maxConnections",
+            "max connections", 8, null).withAliases("connections"));
+    manager.addConfiguratorAndDerivedConfiguration(
+        new Configurator<Long, BufferContainer>() {
+          protected void set(BufferContainer obj, Long value) {
+            obj.bufferSize = value;
+          }
+        }, new DerivedConfigurationDescription<Long>("bufferSize",
+            "total buffer size", "connections", "size") {
+          protected Long derive(DerivedInputs inputs) {
+            try {
+              inputs.get("connections", Long.class);
+              Assert.fail("an Integer input read as a Long");
+            } catch (ClassCastException e) {
+            }
+            try {
+              inputs.get("maxConnections", Integer.class);
+              Assert.fail("a key that is not the name of the input");
+            } catch (IllegalArgumentException e) {
+            }
+            return inputs.get("connections", Integer.class)
+                * inputs.get("size", Long.class);
+          }
+        });
+
+    Configuration conf = new Configuration();
+    conf.setInt("connections", 2);
+    try {
+      manager.configure(conf);
+      Assert.fail("unknown input accepted");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("'size'"));
+    }
+    assertEquals(0, obj.maxConnections);
+
+    manager.addConfiguratorAndConfiguration(
+        new Configurator<Long, BufferContainer>() {
+          protected void set(BufferContainer obj, Long value) {
+          }
+        },
+        ConfigurationDescription.from(FieldType.Long, "connectionSize",
+            "size of a connection buffer", 1024l, null).withAliases("size"));
+    manager.configure(conf);
+    assertEquals(2, obj.maxConnections);
+    assertEquals(2048l, obj.bufferSize);
+
+    conf.setInt("connections", 3);
+    manager.configure(conf);
+    assertEquals(3072l, obj.bufferSize);
+  }
+
+  // test a snapshot configures a new object without a configuration
+  public void testSnapshot() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean("b", true);
+    conf.set("d", String.valueOf(2d));
+    conf.setInt("i", 3);
+    TestClass configured = new TestClass();
+    configured.configurator.configure(conf);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    configured.configurator.writeSnapshot(stream);
+
+    TestClass obj = new TestClass();
+    assertTrue(obj.configurator.configureFromSnapshot(ByteBuffer.wrap(stream
+        .toByteArray())));
+    assertTrue(obj.b);
+    assertTrue(obj.d == 2d);
+    assertTrue(obj.i == 3);
+    assertTrue(obj.l == TestClass.DEFAULT_L);
+
+    BufferContainer other = new BufferContainer();
+    assertFalse(bufferManager(other).configureFromSnapshot(ByteBuffer
+        .wrap(stream.toByteArray())));
+    assertEquals(0, other.derivations);
+  }
+
+  // test a corrupted snapshot is rejected before allocating its lengths
+  public void testCorruptedSnapshot() throws Exception {
+    Configuration conf = new Configuration(false);
+    ConfigurationManager<BufferContainer> manager = keyManager(
+        FieldType.StringList, "list", ImmutableStringList.of(), "a,b", conf);
+    manager.configure(conf);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    manager.writeSnapshot(stream);
+    byte[] snapshot = stream.toByteArray();
+
+    // the number of strings follows the header and the non null marker
+    ByteBuffer.wrap(snapshot).putInt(21, Integer.MAX_VALUE);
+    assertFalse(manager.configureFromSnapshot(ByteBuffer.wrap(snapshot)));
+    ByteBuffer.wrap(snapshot).putInt(21, -1);
+    assertFalse(manager.configureFromSnapshot(ByteBuffer.wrap(snapshot)));
+    // then the length of the first string
+    ByteBuffer.wrap(snapshot).putInt(21, 2).putInt(25, Integer.MAX_VALUE);
+    assertFalse(manager.configureFromSnapshot(ByteBuffer.wrap(snapshot)));
+
+    File file = File.createTempFile("snapshot", ".bin");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+        out.write(snapshot);
+      } finally {
+        out.close();
+      }
+      assertFalse(manager.configureFromSnapshot(file, conf));
+    } finally {
+      file.delete();
+    }
+  }
+
+  static class AsyncContainer {
+    volatile long first;
+    volatile long second;
+  }
+
+  // test independent configurators run asynchronously respecting orderings
+  public void testConfigureAsync() throws Exception {
+    AsyncContainer obj = new AsyncContainer();
+    ConfigurationManager<AsyncContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorFor(FieldType.Long, "first", "first", 1l,
+        new Configurator<Long, AsyncContainer>() {
+          public boolean isIndependent() {
+            return true;
+          }
+
+          protected void set(AsyncContainer obj, Long value) {
+            obj.first = value;
+          }
+        });
+    manager.addConfiguratorFor(FieldType.Long, "second", "second", 2l,
+        new Configurator<Long, AsyncContainer>() {
+          public boolean isIndependent() {
+            return true;
+          }
+
+          protected void set(AsyncContainer obj, Long value) {
+            obj.second = obj.first + value;
+          }
+        });
+    manager.addOrdering("first", "second");
+    try {
+      manager.addOrdering("second", "first");
+      Assert.fail("cycle between first and second accepted");
+    } catch (CyclicDependencyException e) {
+    }
+
+    Configuration conf = new Configuration();
+    conf.setLong("first", 10);
+    manager.configureAsync(conf).get();
+    assertEquals(10, obj.first);
+    assertEquals(12, obj.second);
+
+    conf.set("first", "not a number");
+    conf.set("second", "not a number");
+    try {
+      manager.configureAsync(conf).get();
+      Assert.fail("invalid values accepted");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ConfigurationFailedException);
+      // second is skipped because first failed
+      assertEquals(0, e.getCause().getSuppressed().length);
+    }
+
+    // sequential configurators keep running after a failure
+    BufferContainer container = new BufferContainer();
+    ConfigurationManager<BufferContainer> sequential = ConfigurationManager
+        .createFor(container);
+    for (String key : new String[] { "a", "b", "c" }) {
+      sequential.addConfiguratorFor(FieldType.Integer, key, key, 0,
+          new Configurator<Integer, BufferContainer>() {
+            protected void set(BufferContainer obj, Integer value) {
+              obj.maxConnections = value;
+            }
+          });
+    }
+    conf.set("a", "not a number");
+    conf.set("b", "not a number");
+    conf.setInt("c", 3);
+    try {
+      sequential.configureAsync(conf).get();
+      Assert.fail("invalid values accepted");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ConfigurationFailedException);
+      assertEquals(1, e.getCause().getSuppressed().length);
+      assertEquals(3, container.maxConnections);
+    }
+  }
+
+  // test aliases and deprecated keys, warned only once
+  public void testAliasesAndDeprecatedKeys() throws Exception {
+    ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(warnings, true);
+    final BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj, stream);
+    manager.addConfiguratorAndConfiguration(
+        new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+            obj.maxConnections = value;
+          }
+        },
+        ConfigurationDescription.from(FieldType.Integer, "server.connections.max",
+            "max connections", 8, stream)
+            .withAliases("server.max-connections")
+            .withDeprecatedKeys("server.maxConnections"));
+    assertNotNull(manager.getConfigurationDescription("server.maxConnections"));
+    try {
+      manager.addConfiguratorFor(FieldType.Integer, "server.max-connections",
+          "duplicate", 0, new Configurator<Integer, BufferContainer>() {
+            protected void set(BufferContainer obj, Integer value) {
+            }
+          });
+      Assert.fail("alias registered twice");
+    } catch (IllegalArgumentException e) {
+    }
+
+    Configuration conf = new Configuration();
+    conf.setInt("server.maxConnections", 4);
+    manager.configure(conf);
+    manager.configure(conf);
+    assertEquals(4, obj.maxConnections);
+    String output = warnings.toString();
+    assertEquals(output.indexOf("deprecated"), output.lastIndexOf("deprecated"));
+    assertTrue(output.contains("server.maxConnections"));
+
+    conf.setInt("server.max-connections", 16);
+    manager.configure(conf);
+    assertEquals(16, obj.maxConnections);
+  }
+
+  // test layers precedence, sources and incremental rebuild
+  public void testLayeredConfiguration() throws Exception {
+    TestClass obj = new TestClass();
+    Configuration site = new Configuration();
+    site.setInt("i", 1);
+    site.setLong("l", 1l);
+    site.setInt("unknown", 1);
+    HashMap<String, String> overrides = new HashMap<String, String>();
+    LayeredConfiguration layered = LayeredConfiguration.forManagers(
+        Collections.singleton(obj.configurator),
+        ConfigurationLayer.fromConfiguration("site", site),
+        ConfigurationLayer.fromMap("overrides", overrides),
+        ConfigurationLayer.fromArguments(new String[] { "-Dl=3", "other" }));
+
+    obj.configurator.configure(layered);
+    assertEquals(1, obj.i);
+    assertEquals(3l, obj.l);
+    assertEquals("site", layered.getSource("i"));
+    assertEquals("command line", layered.getSource("l"));
+    assertEquals(LayeredConfiguration.DEFAULT_SOURCE, layered.getSource("b"));
+    assertNull(layered.getSource("unknown"));
+    assertFalse(layered.getValues().containsKey("unknown"));
+
+    overrides.put("i", "2");
+    overrides.put("l", "2");
+    layered.layerChanged("overrides");
+    obj.configurator.configure(layered);
+    assertEquals(2, obj.i);
+    assertEquals(3l, obj.l);
+    assertEquals("overrides", layered.getSource("i"));
+
+    // nothing is published again if no value changed
+    Map<String, String> values = layered.getValues();
+    layered.layerChanged("site");
+    assertSame(values, layered.getValues());
+
+    // the flattened configuration returned is a copy owned by the caller
+    Configuration flattened = layered.toConfiguration();
+    assertNotSame(flattened, layered.toConfiguration());
+    flattened.set("i", "5");
+    assertEquals("2", layered.toConfiguration().get("i"));
+    obj.configurator.configure(layered);
+    assertEquals(2, obj.i);
+    overrides.remove("i");
+    layered.layerChanged("overrides");
+    assertEquals("1", layered.get("i"));
+    assertEquals("site", layered.getSource("i"));
+    assertEquals("2", values.get("i"));
+  }
+
+  // test parsing of data sizes and durations
+  public void testUnits() {
+    assertEquals(64l << 20, Units.parseBytes("64m"));
+    assertEquals(64l << 20, Units.parseBytes(" 64 MB "));
+    assertEquals(1024l, Units.parseBytes("1024"));
+    assertEquals(-2048l, Units.parseBytes("-2k"));
+    assertEquals(64l, Units.parseBytes("64B"));
+    assertEquals(30000000000l, Units.parseNanos("30s"));
+    assertEquals(1500000l, Units.parseNanos("1500us"));
+    assertEquals(250000000l, Units.parseNanos("250"));
+    assertEquals("64m", Units.formatBytes(64l << 20));
+    assertEquals("90s", Units.formatNanos(90000000000l));
+    for (long extreme : new long[] { Long.MIN_VALUE, Long.MAX_VALUE }) {
+      assertEquals(extreme, Units.parseBytes(Units.formatBytes(extreme)));
+      assertEquals(extreme, Units.parseNanos(Units.formatNanos(extreme)));
+    }
+    Configuration conf = new Configuration(false);
+    conf.set("size", "2k");
+    assertEquals(2048l, Units.getBytes(conf, "size", 0));
+    assertEquals(5l, Units.getNanos(conf, "unset", 5));
+    String[] invalid = { "", "m", "12x", "1.5g", "8e", "-9e",
+        "9223372036854775807k", "-9223372036854775809", "10q", "64bb" };
+    for (String value : invalid) {
+      try {
+        Units.parseBytes(value);
+        Assert.fail("invalid value accepted: " + value);
+      } catch (NumberFormatException e) {
+      }
+    }
+  }
+
+  static class SizeContainer {
+    long size;
+    long timeout;
+  }
+
+  // test data size and duration field types
+  public void testDataSizeAndDuration() throws Exception {
+    SizeContainer obj = new SizeContainer();
+    ConfigurationManager<SizeContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorFor(FieldType.DataSize, "size", "a size",
+        1l << 20, new Configurator<Long, SizeContainer>() {
+          protected void set(SizeContainer obj, Long value) {
+            obj.size = value;
+          }
+        });
+    manager.addConfiguratorFor(FieldType.Duration, "timeout", "a timeout",
+        5000000000l, new Configurator<Long, SizeContainer>() {
+          protected void set(SizeContainer obj, Long value) {
+            obj.timeout = value;
+          }
+        });
+    assertEquals("1m", manager.getConfigurationDescription("size")
+        .getDefaultValueAsString());
+    assertEquals("DataSize", manager.getConfigurationDescription("size")
+        .getType());
+    assertEquals("Duration", manager.getConfigurationDescription("timeout")
+        .getType());
+
+    Configuration conf = new Configuration();
+    manager.configure(conf);
+    assertEquals(1l << 20, obj.size);
+    assertEquals(5000000000l, obj.timeout);
+
+    conf.set("size", "2g");
+    conf.set("timeout", "1m");
+    manager.configure(conf);
+    assertEquals(2l << 30, obj.size);
+    assertEquals(60000000000l, obj.timeout);
+  }
+
+  static class HostsContainer {
+    ImmutableStringList queues;
+    ImmutableStringSet hosts;
+  }
+
+  // test string list and string set field types
+  public void testStringListAndSet() throws Exception {
+    HostsContainer obj = new HostsContainer();
+    ConfigurationManager<HostsContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorFor(FieldType.StringList, "queues", "the queues",
+        ImmutableStringList.of("default"),
+        new Configurator<ImmutableStringList, HostsContainer>() {
+          protected void set(HostsContainer obj, ImmutableStringList value) {
+            obj.queues = value;
+          }
+        });
+    manager.addConfiguratorFor(FieldType.StringSet, "hosts", "allowed hosts",
+        ImmutableStringSet.of(),
+        new Configurator<ImmutableStringSet, HostsContainer>() {
+          protected void set(HostsContainer obj, ImmutableStringSet value) {
+            obj.hosts = value;
+          }
+        });
+
+    Configuration conf = new Configuration();
+    manager.configure(conf);
+    assertEquals(1, obj.queues.size());
+    assertFalse(obj.hosts.contains("a"));
+
+    conf.set("queues", " a, ,b ,c,");
+    conf.set("hosts", "h1,h2,h1,h3,h4,h5");
+    manager.configure(conf);
+    assertEquals(ImmutableStringList.of("a", "b", "c"), obj.queues);
+    assertEquals(5, obj.hosts.size());
+    for (int i = 1; i <= 5; ++i) {
+      assertTrue(obj.hosts.contains(new String("h" + i)));
+    }
+    assertFalse(obj.hosts.contains("h6"));
+    assertFalse(obj.hosts.contains((Object) 1));
+
+    ImmutableStringSet hosts = obj.hosts;
+    manager.configure(conf);
+    assertSame(hosts, obj.hosts);
+
+    // values without elements are the default, like for StringCollection
+    conf.set("queues", "");
+    conf.set("hosts", " , ");
+    manager.configure(conf);
+    assertEquals(ImmutableStringList.of("default"), obj.queues);
+    assertEquals(0, obj.hosts.size());
+  }
+
+  // test parsing, membership and iteration of integer range sets
+  public void testIntegerRangeSet() {
+    IntegerRangeSet small = IntegerRangeSet.parse(" 8-10, 2,5-6 ,9-12,,");
+    assertEquals("2,5-6,8-12", small.toString());
+    assertTrue(small.contains(2));
+    assertTrue(small.contains(12));
+    assertFalse(small.contains(7));
+    assertFalse(small.contains(13));
+    assertFalse(small.contains(-1));
+    int sum = 0;
+    for (int v = small.nextIncluded(0); v >= 0; v = small.nextIncluded(v + 1)) {
+      sum += v;
+    }
+    assertEquals(2 + 5 + 6 + 8 + 9 + 10 + 11 + 12, sum);
+
+    IntegerRangeSet large = IntegerRangeSet.parse("-3,100000-");
+    assertEquals(2, large.getRangeCount());
+    assertTrue(large.contains(0));
+    assertFalse(large.contains(4));
+    assertTrue(large.contains(Integer.MAX_VALUE));
+    assertEquals(100000, large.nextIncluded(4));
+    assertEquals(-1, IntegerRangeSet.empty().nextIncluded(0));
+
+    String[] invalid = { "5-2", "a", "1-b" };
+    for (String value : invalid) {
+      try {
+        IntegerRangeSet.parse(value);
+        Assert.fail("invalid value accepted: " + value);
+      } catch (IllegalArgumentException e) {
+      }
+    }
+  }
+
+  static class TestClassFactory extends InstanceFactory<TestClass> {
+    int created;
+
+    protected TestClass newInstance() {
+      ++this.created;
+      try {
+        return new TestClass();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    protected ConfigurationManager<TestClass> getConfigurationManager(
+        TestClass obj) {
+      return obj.configurator;
+    }
+  }
+
+  // test fingerprints and the reuse of configured instances
+  public void testConfiguredInstancePool() throws Exception {
+    TestClass obj = new TestClass();
+    Configuration conf = new Configuration();
+    conf.setInt("i", 1);
+    long fingerprint = obj.configurator.fingerprint(conf);
+    conf.set("unknown", "value");
+    assertEquals(fingerprint, obj.configurator.fingerprint(conf));
+    conf.setInt("i", 2);
+    assertTrue(fingerprint != obj.configurator.fingerprint(conf));
+
+    ConfiguredInstancePool pool = new ConfiguredInstancePool(1);
+    TestClassFactory factory = new TestClassFactory();
+    TestClass first = pool.get(TestClass.class, conf, factory);
+    assertEquals(2, first.i);
+    assertSame(first, pool.get(TestClass.class, new Configuration(conf), factory));
+    assertEquals(1, pool.getHits());
+
+    conf.setInt("i", 3);
+    TestClass second = pool.get(TestClass.class, conf, factory);
+    assertEquals(3, second.i);
+    assertEquals(1, pool.getEvictions());
+    assertEquals(2, pool.getMisses());
+    // one template and two configured instances
+    assertEquals(3, factory.created);
+
+    // another factory has its own template and instances
+    TestClassFactory other = new TestClassFactory();
+    assertNotSame(second, pool.get(TestClass.class, conf, other));
+    assertEquals(2, other.created);
+
+    // secrets can't be told apart by a fingerprint
+    obj.configurator.addConfiguratorFor(FieldType.Secret, "token", "a token",
+        null, new Configurator<Secret, TestClass>() {
+          protected void set(TestClass obj, Secret value) {
+          }
+        });
+    try {
+      obj.configurator.fingerprint(conf);
+      Assert.fail("secret fingerprinted");
+    } catch (UnsupportedOperationException e) {
+    }
+  }
+
+  // test an instance is created without blocking the other callers
+  public void testConfiguredInstancePoolDoesNotLock() throws Exception {
+    final ConfiguredInstancePool pool = new ConfiguredInstancePool(4);
+    final Configuration conf = new Configuration();
+    conf.setInt("i", 1);
+    final TestClassFactory factory = new TestClassFactory();
+    final TestClass cached = pool.get(TestClass.class, conf, factory);
+
+    final CountDownLatch creating = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestClassFactory blocking = new TestClassFactory() {
+      protected TestClass newInstance() {
+        if (this.created == 1) {
+          creating.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return super.newInstance();
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<TestClass> slow = executor.submit(new Callable<TestClass>() {
+        public TestClass call() {
+          return pool.get(TestClass.class, conf, blocking);
+        }
+      });
+      assertTrue(creating.await(5, TimeUnit.SECONDS));
+      Future<TestClass> hit = executor.submit(new Callable<TestClass>() {
+        public TestClass call() {
+          return pool.get(TestClass.class, conf, factory);
+        }
+      });
+      assertSame(cached, hit.get(5, TimeUnit.SECONDS));
+      release.countDown();
+      assertEquals(1, slow.get(5, TimeUnit.SECONDS).i);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  // test registration from a thread while another one configures
+  public void testConcurrentRegistration() throws Exception {
+    final BufferContainer obj = new BufferContainer();
+    final ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj);
+    final Configuration conf = new Configuration();
+    final CountDownLatch started = new CountDownLatch(1);
+    final Throwable[] failure = new Throwable[1];
+    Thread configuring = new Thread() {
+      public void run() {
+        try {
+          started.countDown();
+          for (int i = 0; i < 2000; ++i) {
+            manager.configure(conf);
+            manager.getConfigurationDescriptions();
+          }
+        } catch (Throwable t) {
+          failure[0] = t;
+        }
+      }
+    };
+    configuring.start();
+    started.await();
+    for (int i = 0; i < 200; ++i) {
+      manager.addConfiguratorFor(FieldType.Integer, "key" + i, "key " + i, i,
+          new Configurator<Integer, BufferContainer>() {
+            protected void set(BufferContainer obj, Integer value) {
+            }
+          });
+    }
+    configuring.join();
+    assertNull(failure[0]);
+    assertEquals(200, manager.getConfigurationDescriptions().size());
+  }
+
+  // test the change log keeps the recent raw changes, of the derived keys
+  // too, without secret values
+  public void testChangeLog() throws Exception {
+    BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(obj);
+    manager.addConfiguratorFor(FieldType.Integer, "port", "a port", 80,
+        new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+          }
+        });
+    manager.addConfiguratorAndConfiguration(
+        new Configurator<String, BufferContainer>() {
+          protected void set(BufferContainer obj, String value) {
+          }
+        },
+        ConfigurationDescription.from(FieldType.String, "password",
+            "a password", "", null).asSecret());
+    manager.addConfiguratorAndDerivedConfiguration(
+        new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+          }
+        }, new DerivedConfigurationDescription<Integer>("nextPort",
+            "the port after the port", "port") {
+          protected Integer derive(DerivedInputs inputs) {
+            return inputs.get("port", Integer.class) + 1;
+          }
+        });
+    Configuration conf = new Configuration();
+    manager.configure(conf);
+    assertTrue(manager.getRecentChanges().isEmpty());
+
+    manager.enableChangeLog(4);
+    conf.setInt("port", 8080);
+    conf.set("password", "secret");
+    manager.configure(conf);
+    manager.configure(conf);
+    conf.set("port", " 8081 ");
+    manager.configure(conf);
+
+    List<ConfigurationChange> changes = manager.getRecentChanges();
+    assertEquals(4, changes.size());
+    ConfigurationChange password = changes.get(0);
+    assertEquals("password", password.getKey());
+    assertTrue(password.isSecret());
+    assertNull(password.getNewValue());
+    ConfigurationChange nextPort = changes.get(1);
+    assertEquals("nextPort", nextPort.getKey());
+    assertEquals("81", nextPort.getOldValue());
+    assertEquals("8081", nextPort.getNewValue());
+    ConfigurationChange port = changes.get(2);
+    assertEquals("8080", port.getOldValue());
+    assertEquals(" 8081 ", port.getNewValue());
+    assertEquals(password.getConfigureId() + 2, port.getConfigureId());
+    nextPort = changes.get(3);
+    assertEquals("8081", nextPort.getOldValue());
+    assertEquals("8082", nextPort.getNewValue());
+  }
+
+  // test only the values different from the defaults are written
+  public void testEffectiveConfiguration() throws Exception {
+    TestClass obj = new TestClass();
+    Configuration conf = new Configuration();
+    conf.setBoolean("b", true);
+    conf.setInt("i", TestClass.DEFAULT_I);
+    conf.set("unknown", "value");
+
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    assertEquals(1, new EffectiveConfigurationToStringConverter(text).convert(
+        obj.configurator, conf));
+    assertTrue(text.toString().startsWith("b=true"));
+
+    LayeredConfiguration layered = LayeredConfiguration.forManagers(
+        Collections.singleton(obj.configurator),
+        ConfigurationLayer.fromConfiguration("site", conf));
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    assertEquals(1, EffectiveConfigurationToXMLConverter.newInstance(xml)
+        .convert(obj.configurator, layered));
+    String output = xml.toString("UTF-8");
+    assertTrue(output.contains("<name>b</name>"));
+    assertTrue(output.contains("<source>site</source>"));
+    assertFalse(output.contains("<name>i</name>"));
+    assertFalse(output.contains("unknown"));
+  }
+
+  // test a value of a type without equals is compared to the default by its
+  // formatted value
+  public void testEffectiveConfigurationWithoutEquals() throws Exception {
+    Configuration conf = new Configuration(false);
+    ConfigurationManager<BufferContainer> manager = keyManager(
+        FieldType.IntegerRanges, "ports", new Configuration.IntegerRanges(
+            "8080-8090"), "8080-8090", conf);
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    assertEquals(0, new EffectiveConfigurationToStringConverter(text).convert(
+        manager, conf));
+
+    conf.set("ports", "9000-9010");
+    text.reset();
+    assertEquals(1, new EffectiveConfigurationToStringConverter(text).convert(
+        manager, conf));
+    assertTrue(text.toString().startsWith("ports=9000-9010"));
+  }
+
+  // test resolve gives the value of checkAndGet without warnings
+  public void testResolve() throws Exception {
+    ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+    ConfigurationDescription<Integer> description = ConfigurationDescription
+        .from(FieldType.Integer, "new.key", "an int", 1,
+            new PrintStream(warnings)).withDeprecatedKeys("old.key");
+    Configuration conf = new Configuration();
+    assertEquals(Integer.valueOf(1), description.resolve(conf));
+    conf.set("old.key", "2");
+    assertEquals(Integer.valueOf(2), description.resolve(conf));
+    assertEquals(0, warnings.size());
+    assertEquals(Integer.valueOf(2), description.checkAndGet(conf));
+    assertTrue(warnings.size() > 0);
+    conf.set("new.key", "3");
+    assertEquals(Integer.valueOf(3), description.resolve(conf));
+  }
+
+  // test secrets are cached and never printed
+  public void testSecret() throws Exception {
+    ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+    ConfigurationDescription<Secret> description = ConfigurationDescription
+        .from(FieldType.Secret, "token", "a token",
+            Secret.of("fallback".toCharArray()), new PrintStream(warnings));
+    assertTrue(description.isSecret());
+    assertFalse(description.toPrettyString().contains("fallback"));
+
+    Configuration conf = new Configuration();
+    assertEquals(Secret.of("fallback".toCharArray()),
+        description.checkAndGet(conf));
+    assertFalse(warnings.toString().contains("fallback"));
+
+    conf.set("token", "s3cr3t");
+    Secret secret = description.checkAndGet(conf);
+    assertEquals("s3cr3t", new String(secret.getChars()));
+    assertFalse(secret.toString().contains("s3cr3t"));
+    Configuration other = new Configuration();
+    other.set("token", "s3cr3t");
+    assertSame(secret, description.checkAndGet(other));
+    other.set("token", "changed");
+    assertEquals("changed", new String(description.checkAndGet(other)
+        .getChars()));
+    assertEquals("s3cr3t", new String(description.checkAndGet(conf)
+        .getChars()));
+
+    Secret.setCacheTtl(0, TimeUnit.NANOSECONDS);
+    try {
+      Secret reloaded = description.checkAndGet(conf);
+      assertNotSame(secret, reloaded);
+      assertEquals(secret, reloaded);
+    } finally {
+      Secret.setCacheTtl(5, TimeUnit.MINUTES);
+      Secret.clearCache();
+    }
+  }
+
+  // test enums and enum sets are parsed ignoring case
+  public void testEnumAndEnumSet() throws Exception {
+    ConfigurationDescription<TimeUnit> unit = ConfigurationDescription.from(
+        FieldType.enumOf(TimeUnit.class), "unit", "a time unit",
+        TimeUnit.SECONDS, null);
+    ConfigurationDescription<Set<TimeUnit>> units = ConfigurationDescription
+        .from(FieldType.enumSetOf(TimeUnit.class), "units", "time units",
+            EnumSet.noneOf(TimeUnit.class), null);
+    assertEquals("TimeUnit", unit.getType());
+    assertEquals("EnumSet<TimeUnit>", units.getType());
+
+    Configuration conf = new Configuration();
+    assertEquals(TimeUnit.SECONDS, unit.checkAndGet(conf));
+    assertTrue(units.checkAndGet(conf).isEmpty());
+
+    conf.set("unit", " milliSeconds ");
+    conf.set("units", "days, hours,,");
+    assertEquals(TimeUnit.MILLISECONDS, unit.checkAndGet(conf));
+    Set<TimeUnit> parsed = units.checkAndGet(conf);
+    assertEquals(EnumSet.of(TimeUnit.DAYS, TimeUnit.HOURS), parsed);
+    assertEquals("HOURS,DAYS", units.format(parsed));
+    // the sets are shared by the callers, so they can't be modified
+    try {
+      parsed.clear();
+      fail("shared set modified");
+    } catch (UnsupportedOperationException e) {
+    }
+    conf.set("units", "HOURS,DAYS");
+    assertSame(parsed, units.checkAndGet(conf));
+
+    assertSame(FieldType.enumOf(TimeUnit.class),
+        FieldType.enumOf(TimeUnit.class));
+    assertNotSame(FieldType.enumOf(TimeUnit.class),
+        FieldType.enumOf(Thread.State.class));
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    FieldType<Thread.State> raw = (FieldType) FieldType.enumOf(TimeUnit.class);
+    try {
+      ConfigurationDescription.from(raw, "state", "a state",
+          Thread.State.NEW, null);
+      fail("NEW is not a time unit");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains(TimeUnit.class.getName()));
+    }
+
+    conf.set("unit", "fortnights");
+    try {
+      unit.checkAndGet(conf);
+      fail("fortnights is not a time unit");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("fortnights"));
+    }
+  }
+
+  /**
+   * Returns a manager with one configuration of the given type, named key,
+   * and set value in conf if it is not null
+   */
+  private static <T> ConfigurationManager<BufferContainer> keyManager(
+      FieldType<T> type, String key, T defaultValue, String value,
+      Configuration conf) throws Exception {
+    ConfigurationManager<BufferContainer> manager = ConfigurationManager
+        .createFor(new BufferContainer());
+    manager.addConfiguratorFor(type, key, "a key", defaultValue,
+        new Configurator<T, BufferContainer>() {
+          protected void set(BufferContainer obj, T value) {
+          }
+        });
+    if (value != null) {
+      conf.set(key, value);
+    }
+    return manager;
+  }
+
+  /**
+   * Returns the names read from conf by configuring the manager of a key of
+   * the given type, set in conf: the key is probed and then read, except for
+   * the secrets whose cached value is checked against the credential
+   * provider path and the value it was loaded with
+   */
+  private static String[] readNames(FieldType<?> type, String key) {
+    if (type == FieldType.Secret) {
+      return new String[] { key, "hadoop.security.credential.provider.path",
+          key };
+    }
+    return new String[] { key, key };
+  }
+
+  /**
+   * Returns the bytes allocated by 1000 configure calls of each manager with
+   * an unchanged configuration, beyond what reading its names from conf
+   * allocates, or null if the JVM can't measure them. The JIT allocates in
+   * the thread running the code it replaces or deoptimizes, and a
+   * deoptimization is only seen once the code is compiled again, so the
+   * calls are measured in rounds until three rounds in a row during which
+   * the JIT compiled nothing, up to 200 rounds, and the middle one is
+   * returned. Without compilation time monitoring the 20th round is returned
+   */
+  private static long[] steadyStateAllocations(
+      List<? extends ConfigurationManager<?>> managers, List<String[]> reads,
+      Configuration conf) {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()
+        || !threads.isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+    long id = Thread.currentThread().getId();
+    CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+    boolean timed = compiler != null
+        && compiler.isCompilationTimeMonitoringSupported();
+    long[] previous = null;
+    long[] allocated = null;
+    int idleRounds = 0;
+    for (int round = 0; round < (timed ? 200 : 20) && idleRounds < 3; ++round) {
+      long compilationTime = timed ? compiler.getTotalCompilationTime() : 0;
+      previous = allocated;
+      allocated = excessAllocations(threads, id, managers, reads, conf);
+      boolean idle = timed
+          && compiler.getTotalCompilationTime() == compilationTime;
+      idleRounds = idle ? idleRounds + 1 : 0;
+    }
+    return idleRounds == 3 ? previous : allocated;
+  }
+
+  /**
+   * Returns the bytes allocated by 1000 configure calls of each manager
+   * beyond what reading its names from conf as many times allocates
+   */
+  private static long[] excessAllocations(
+      com.sun.management.ThreadMXBean threads, long id,
+      List<? extends ConfigurationManager<?>> managers, List<String[]> reads,
+      Configuration conf) {
+    long[] configured = new long[managers.size()];
+    long[] read = new long[managers.size()];
+    for (int i = 0; i < 1000; ++i) {
+      for (int j = 0; j < configured.length; ++j) {
+        configured[j] += configureAllocations(threads, id, managers.get(j),
+            conf);
+        read[j] += readAllocations(threads, id, reads.get(j), conf);
+      }
+    }
+    for (int j = 0; j < configured.length; ++j) {
+      configured[j] = Math.max(0, configured[j] - read[j]);
+    }
+    return configured;
+  }
+
+  /**
+   * Returns the bytes allocated by one configure call. Each call is sampled
+   * on its own, minus what sampling allocates
+   */
+  private static long configureAllocations(
+      com.sun.management.ThreadMXBean threads, long id,
+      ConfigurationManager<?> manager, Configuration conf) {
+    long start = threads.getThreadAllocatedBytes(id);
+    long measurement = threads.getThreadAllocatedBytes(id) - start;
+    start = threads.getThreadAllocatedBytes(id);
+    manager.configure(conf);
+    return threads.getThreadAllocatedBytes(id) - start - measurement;
+  }
+
+  /** Returns the bytes allocated by reading the names from conf once */
+  private static long readAllocations(
+      com.sun.management.ThreadMXBean threads, long id, String[] names,
+      Configuration conf) {
+    long start = threads.getThreadAllocatedBytes(id);
+    long measurement = threads.getThreadAllocatedBytes(id) - start;
+    start = threads.getThreadAllocatedBytes(id);
+    for (String name : names) {
+      conf.get(name);
+    }
+    return threads.getThreadAllocatedBytes(id) - start - measurement;
+  }
+
+  /**
+   * The managers of one key of each type measured by
+   * {@link ConfigurationManagerTest#testSteadyStateConfigureDoesNotAllocate()}
+   */
+  private static class SteadyStateManagers {
+    final Configuration conf = new Configuration(false);
+    final List<String> keys = new ArrayList<String>();
+    final Set<FieldType<?>> types = new HashSet<FieldType<?>>();
+    final List<ConfigurationManager<BufferContainer>> managers = new ArrayList<ConfigurationManager<BufferContainer>>();
+    final List<String[]> reads = new ArrayList<String[]>();
+
+    <T> void add(FieldType<T> type, String key, T defaultValue, String value)
+        throws Exception {
+      this.keys.add(key);
+      this.types.add(type);
+      this.managers.add(keyManager(type, key, defaultValue, value, this.conf));
+      this.reads.add(readNames(type, key));
+    }
+  }
+
+  // test configuring an unchanged configuration doesn't allocate, whatever
+  // the type of the configuration
+  public void testSteadyStateConfigureDoesNotAllocate() throws Exception {
+    SteadyStateManagers measured = new SteadyStateManagers();
+    measured.add(FieldType.Boolean, "boolean", false, "true");
+    measured.add(FieldType.Class, "class", Object.class, "java.lang.String");
+    measured.add(FieldType.Double, "double", 0.0, "1.5");
+    measured.add(FieldType.Integer, "integer", 0, "100000");
+    measured.add(FieldType.Integer, "integerDefault", 0, null);
+    measured.add(FieldType.IntegerRanges, "ranges",
+        new Configuration.IntegerRanges("0"), "1-3,5");
+    measured.add(FieldType.IntegerRangeSet, "rangeSet",
+        IntegerRangeSet.empty(), "1-3,5");
+    measured.add(FieldType.Long, "long", 0L, "100000");
+    measured.add(FieldType.Float, "float", 0f, "1.5");
+    measured.add(FieldType.String, "string", "", "value");
+    measured.add(FieldType.StringList, "list", ImmutableStringList.of(), "a,b");
+    measured.add(FieldType.StringSet, "set", ImmutableStringSet.of(), "a,b");
+    measured.add(FieldType.DataSize, "size", 0L, "64m");
+    measured.add(FieldType.Duration, "duration", 0L, "30s");
+    measured.add(FieldType.Secret, "secret", Secret.empty(), "s3cr3t");
+    measured.add(FieldType.enumOf(TimeUnit.class), "enum", TimeUnit.SECONDS,
+        "days");
+    measured.add(FieldType.enumSetOf(TimeUnit.class), "enumSet",
+        EnumSet.noneOf(TimeUnit.class), "days,hours");
+    for (Field field : FieldType.class.getFields()) {
+      if (Modifier.isStatic(field.getModifiers())
+          && field.getType() == FieldType.class) {
+        assertTrue(field.getName() + " is not measured",
+            measured.types.contains(field.get(null)));
+      }
+    }
+    for (ConfigurationManager<BufferContainer> manager : measured.managers) {
+      manager.configure(measured.conf);
+    }
+
+    long[] allocated = steadyStateAllocations(measured.managers,
+        measured.reads, measured.conf);
+    for (int i = 0; allocated != null && i < allocated.length; ++i) {
+      assertEquals(measured.keys.get(i), 0, allocated[i]);
+    }
+    Secret.clearCache();
+  }
+
+  // test configuring doesn't allocate anymore once the recordings are stopped
+  public void testConfigureAfterRecording() throws Exception {
+    Recording recording = new Recording();
+    recording.start();
+    recording.stop();
+    recording.close();
+    Configuration conf = new Configuration(false);
+    ConfigurationManager<BufferContainer> manager = keyManager(
+        FieldType.Integer, "key", 0, "100000", conf);
+    manager.configure(conf);
+    long[] allocated = steadyStateAllocations(
+        Collections.singletonList(manager),
+        Collections.singletonList(readNames(FieldType.Integer, "key")), conf);
+    assertTrue(allocated == null || allocated[0] == 0);
+  }
+
+  // test the string collections are new mutable collections, unlike the
+  // shared string lists
+  @SuppressWarnings("unchecked")
+  public void testStringCollectionIsMutableCopy() throws Exception {
+    Constructor<?> constructor = Class.forName(
+        "melrief.hadoopconfmanager.ConfigurationDescription$StringCollectionConfiguration")
+        .getConstructor(String.class, String.class, Collection.class,
+            PrintStream.class);
+    constructor.setAccessible(true);
+    ConfigurationDescription<Collection<String>> collection = (ConfigurationDescription<Collection<String>>) constructor
+        .newInstance("collection", "a collection", Collections.emptyList(),
+            null);
+    Configuration conf = new Configuration(false);
+    conf.set("collection", "a,b");
+    Collection<String> first = collection.checkAndGet(conf);
+    Collection<String> second = collection.checkAndGet(conf);
+    assertEquals(first, second);
+    assertNotSame(first, second);
+    first.add("c");
+    assertEquals(3, first.size());
+    assertEquals(2, collection.checkAndGet(conf).size());
+  }
+
+  // test pruning keeps the registered names, the allowed prefixes and the
+  // variables they refer to
+  public void testConfigurationPruner() throws Exception {
+    BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = bufferManager(obj);
+    ConfigurationPruner pruner = ConfigurationPruner.forManagers(
+        Collections.singleton(manager), "fs.");
+
+    Configuration conf = new Configuration(false);
+    conf.set("connectionSize", "${base.size}");
+    conf.set("base.size", "4096");
+    conf.set("fs.defaultFS", "hdfs://localhost");
+    for (int i = 0; i < 100; ++i) {
+      conf.set("unused.key" + i, "unused value " + i);
+    }
+
+    PrunedConfiguration pruned = pruner.prune(conf);
+    Configuration minimal = pruned.getConfiguration();
+    assertEquals("4096", minimal.get("base.size"));
+    assertEquals("hdfs://localhost", minimal.get("fs.defaultFS"));
+    assertNull(minimal.get("unused.key0"));
+    assertEquals(103, pruned.getOriginalKeys());
+    assertEquals(3, pruned.getKeptKeys());
+    assertTrue(pruned.getSavedBytes() > 0);
+    assertEquals(pruned.getOriginalBytes() - pruned.getPrunedBytes(),
+        pruned.getSavedBytes());
+  }
+
+  // test the generated configure routine follows the registrations
+  public void testGeneratedConfigure() throws Exception {
+    final BufferContainer obj = new BufferContainer();
+    ConfigurationManager<BufferContainer> manager = bufferManager(obj);
+    boolean generated = manager.enableGeneratedConfigure();
+    String version = System.getProperty("java.specification.version");
+    if (!version.startsWith("1.") && Integer.parseInt(version) >= 15) {
+      assertTrue(generated);
+    }
+
+    Configuration conf = new Configuration();
+    conf.setInt("maxConnections", 4);
+    manager.configure(conf);
+    assertEquals(4, obj.maxConnections);
+    assertEquals(4 * 1024, obj.bufferSize);
+    assertEquals(1, obj.derivations);
+    manager.configure(conf);
+    assertEquals(1, obj.derivations);
+
+    manager.addConfiguratorFor(FieldType.Integer, "derivations",
+        "overrides the derivations", 0,
+        new Configurator<Integer, BufferContainer>() {
+          protected void set(BufferContainer obj, Integer value) {
+            obj.derivations = value;
+          }
+        });
+    conf.setInt("derivations", 10);
+    conf.setInt("maxConnections", 2);
+    manager.configure(conf);
+    assertEquals(2 * 1024, obj.bufferSize);
+    assertEquals(11, obj.derivations);
+
+    manager.disableGeneratedConfigure();
+    conf.setInt("maxConnections", 3);
+    manager.configure(conf);
+    assertEquals(3, obj.maxConnections);
+
+    if (!generated) {
+      return;
+    }
+    // more configurations than fit in one method of the routine, one of
+    // them overriding configure
+    final int[] values = new int[250];
+    final int[] calledByRoutine = new int[1];
+    ConfigurationManager<int[]> many = ConfigurationManager.createFor(values);
+    for (int i = 0; i < values.length; ++i) {
+      final int index = i;
+      Configurator<Integer, int[]> configurator = new Configurator<Integer, int[]>() {
+        protected void set(int[] obj, Integer value) {
+          obj[index] = value;
+          if (isCalledByRoutine()) {
+            ++calledByRoutine[0];
+          }
+        }
+      };
+      if (i == 150) {
+        configurator = new Configurator<Integer, int[]>() {
+          public Integer configure(int[] obj,
+              ConfigurationDescription<Integer> configuration,
+              Configuration conf) {
+            return super.configure(obj, configuration, conf) + 0;
+          }
+
+          protected void set(int[] obj, Integer value) {
+            obj[index] = -value;
+            if (isCalledByRoutine()) {
+              ++calledByRoutine[0];
+            }
+          }
+        };
+      }
+      many.addConfiguratorFor(FieldType.Integer, "key" + i, "a key", 0,
+          configurator);
+      conf.setInt("key" + i, i);
+    }
+    assertTrue(many.enableGeneratedConfigure());
+    many.configure(conf);
+    assertEquals(values.length, calledByRoutine[0]);
+    assertEquals(0, values[0]);
+    assertEquals(149, values[149]);
+    assertEquals(-150, values[150]);
+    assertEquals(249, values[249]);
+
+    Configuration unchanged = new Configuration(false);
+    ConfigurationManager<BufferContainer> integer = keyManager(
+        FieldType.Integer, "key", 0, "100000", unchanged);
+    integer.enableGeneratedConfigure();
+    integer.configure(unchanged);
+    long[] allocated = steadyStateAllocations(
+        Collections.singletonList(integer),
+        Collections.singletonList(readNames(FieldType.Integer, "key")),
+        unchanged);
+    assertTrue(allocated == null || allocated[0] == 0);
+  }
+
+  /** Returns true if a generated configure routine is on the stack */
+  private static boolean isCalledByRoutine() {
+    return StackWalker.getInstance(StackWalker.Option.SHOW_HIDDEN_FRAMES)
+        .walk(new Function<Stream<StackWalker.StackFrame>, Boolean>() {
+          public Boolean apply(Stream<StackWalker.StackFrame> frames) {
+            return frames.anyMatch(new Predicate<StackWalker.StackFrame>() {
+              public boolean test(StackWalker.StackFrame frame) {
+                return frame.getClassName().startsWith(
+                    "melrief.hadoopconfmanager.ConfigureRoutine$Generated");
+              }
+            });
+          }
+        });
+  }
+
 }